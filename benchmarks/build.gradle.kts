@@ -0,0 +1,34 @@
+plugins {
+    java
+    id("me.champeau.jmh") version "0.7.2"
+}
+
+repositories {
+    mavenCentral()
+}
+
+dependencies {
+    // Paper API is not on the classpath; the classes used by the benchmarks are stubbed in src/jmh/java/org/bukkit
+    jmh(project(":"))
+    // libraries provided by Paper 1.15.2 at runtime
+    jmh("com.google.guava:guava:21.0")
+    jmh("com.google.code.gson:gson:2.8.0")
+    jmh("org.slf4j:slf4j-api:1.7.30")
+    jmh("org.slf4j:slf4j-nop:1.7.30")
+    jmh("org.jetbrains:annotations:24.0.1")
+}
+
+java.toolchain.languageVersion.set(JavaLanguageVersion.of(8))
+
+tasks.withType<JavaCompile> {
+    options.encoding = "UTF-8"
+}
+
+jmh {
+    jmhVersion.set("1.37")
+    fork.set(1)
+    warmupIterations.set(3)
+    iterations.set(5)
+    // e.g. ./gradlew :benchmarks:jmh -Pjmh.includes=CompileBenchmark
+    (project.findProperty("jmh.includes") as String?)?.let { includes.set(listOf(it)) }
+}
@@ -0,0 +1,25 @@
+package net.azisaba.spigotcommander.benchmarks;
+
+import com.google.common.collect.ImmutableMap;
+import net.azisaba.spigotcommander.util.ClasspathUtil;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Lookup of the classpath entry of a class, done for every classpath import on each reload.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ClasspathBenchmark {
+    @Benchmark
+    public String jar() {
+        return ClasspathUtil.getClasspath(ImmutableMap.class);
+    }
+
+    @Benchmark
+    public String benchmarkClass() {
+        return ClasspathUtil.getClasspath(ClasspathBenchmark.class);
+    }
+}
@@ -0,0 +1,77 @@
+package net.azisaba.spigotcommander.benchmarks;
+
+import net.azisaba.spigotcommander.commands.ScriptCommand;
+import net.azisaba.spigotcommander.metrics.ScriptMetrics;
+import org.bukkit.command.Command;
+import org.bukkit.command.CommandSender;
+import org.bukkit.command.TabExecutor;
+import org.jetbrains.annotations.NotNull;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Dispatch of a command and a tab completion through ScriptCommand to a trivial script executor.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class CommandDispatchBenchmark {
+    private static final String[] ARGS = {"a", "b"};
+
+    @Param({"false", "true"})
+    public boolean metrics;
+
+    private ScriptCommand command;
+    private CommandSender sender;
+
+    @Setup
+    public void setup() {
+        command = new ScriptCommand("ping", "", "/ping", Collections.emptyList(), new Executor());
+        command.setMetrics(metrics ? new ScriptMetrics() : null);
+        sender = new Sender();
+    }
+
+    @Benchmark
+    public boolean execute() {
+        return command.execute(sender, "ping", ARGS);
+    }
+
+    @Benchmark
+    public List<String> tabComplete() {
+        return command.tabComplete(sender, "ping", ARGS);
+    }
+
+    public static final class Executor implements TabExecutor {
+        private int count;
+
+        @Override
+        public boolean onCommand(@NotNull CommandSender sender, @NotNull Command command, @NotNull String label, @NotNull String[] args) {
+            count += args.length;
+            return true;
+        }
+
+        @Override
+        public List<String> onTabComplete(@NotNull CommandSender sender, @NotNull Command command, @NotNull String alias, @NotNull String[] args) {
+            return args.length == 2 ? Collections.singletonList(args[1]) : null;
+        }
+    }
+
+    private static final class Sender implements CommandSender {
+        @Override
+        public void sendMessage(@NotNull String message) {
+        }
+
+        @Override
+        public @NotNull String getName() {
+            return "CONSOLE";
+        }
+
+        @Override
+        public boolean hasPermission(@NotNull String name) {
+            return true;
+        }
+    }
+}
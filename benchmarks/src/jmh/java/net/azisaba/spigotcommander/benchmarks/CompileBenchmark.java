@@ -0,0 +1,86 @@
+package net.azisaba.spigotcommander.benchmarks;
+
+import net.azisaba.spigotcommander.util.FileUtil;
+import net.azisaba.spigotcommander.util.SourceUtil;
+import net.azisaba.spigotcommander.util.tools.JavaCompiler;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compilation of synthetic script sets with each compiler mode.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+public class CompileBenchmark {
+    @Param({"1", "10", "100", "500"})
+    public int files;
+
+    private Path sourceRoot;
+    private File singleFile;
+    private Map<String, String> rewritten;
+    private final List<Path> outputs = new ArrayList<>();
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        JavaCompiler.setupClasspath(Collections.emptyList());
+        Map<String, String> sources = ScriptSet.generate(files);
+        sourceRoot = ScriptSet.write(Files.createTempDirectory("spigotcommander-benchmark-src-"), sources);
+        singleFile = sourceRoot.resolve(ScriptSet.PACKAGE.replace('.', '/')).resolve("Script0.java").toFile();
+        rewritten = new HashMap<>();
+        sources.forEach((name, source) -> rewritten.put(ScriptSet.PACKAGE + "." + name, SourceUtil.rewritePackage(source, ScriptSet.PACKAGE)));
+    }
+
+    @TearDown(Level.Iteration)
+    public void deleteOutputs() throws IOException {
+        for (Path output : outputs) {
+            FileUtil.deleteRecursively(output);
+        }
+        outputs.clear();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        FileUtil.deleteRecursively(sourceRoot);
+    }
+
+    /**
+     * Compiles all files into a temporary directory (compiler.in-memory: false).
+     */
+    @Benchmark
+    public File compileAll() throws IOException {
+        File output = JavaCompiler.compileAll(sourceRoot.toFile(), false);
+        outputs.add(output.toPath());
+        return output;
+    }
+
+    /**
+     * Compiles the first script, resolving the scripts it references from the source path.
+     */
+    @Benchmark
+    public File compile() throws IOException {
+        Path dest = Files.createTempDirectory("spigotcommander-benchmark-out-");
+        outputs.add(dest);
+        return JavaCompiler.compile(sourceRoot.toFile(), singleFile, dest.toFile());
+    }
+
+    /**
+     * Compiles all files in a single task without touching the file system (compiler.in-memory: true).
+     */
+    @Benchmark
+    public Map<String, byte[]> compileInMemory() throws IOException {
+        return JavaCompiler.compileInMemory(rewritten, false);
+    }
+}
@@ -0,0 +1,56 @@
+package net.azisaba.spigotcommander.benchmarks;
+
+import net.azisaba.spigotcommander.util.ClassUtil;
+import org.bukkit.plugin.Plugin;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Construction of script classes through ClassUtil, compared with a plain constructor call.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ConstructBenchmark {
+    private ClassLoader classLoader;
+
+    @Setup
+    public void setup() {
+        classLoader = ConstructBenchmark.class.getClassLoader();
+    }
+
+    // the plugin argument is passed as null; these classes don't use it
+    @Benchmark
+    public Object constructNoArgs() {
+        return ClassUtil.construct(classLoader, NoArgs.class.getName(), null);
+    }
+
+    @Benchmark
+    public Object constructPluginArg() {
+        return ClassUtil.construct(classLoader, PluginArg.class.getName(), null);
+    }
+
+    @Benchmark
+    public Object newInstance() {
+        return ClassUtil.newInstance(PluginArg.class, null);
+    }
+
+    @Benchmark
+    public Object baseline() {
+        return new PluginArg(null);
+    }
+
+    public static class NoArgs {
+        public NoArgs() {
+        }
+    }
+
+    public static class PluginArg {
+        private final Plugin plugin;
+
+        public PluginArg(Plugin plugin) {
+            this.plugin = plugin;
+        }
+    }
+}
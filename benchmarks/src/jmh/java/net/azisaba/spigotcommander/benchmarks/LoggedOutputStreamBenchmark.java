@@ -0,0 +1,76 @@
+package net.azisaba.spigotcommander.benchmarks;
+
+import net.azisaba.spigotcommander.util.SimpleLoggedBufferedOutputStream;
+import org.jetbrains.annotations.NotNull;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.slf4j.event.Level;
+
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of the stream the compiler diagnostics are written to, with about 64 KiB of diagnostics per operation.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class LoggedOutputStreamBenchmark {
+    private String diagnostics;
+    private byte[] bytes;
+    private BlackholeOutputStream out;
+
+    @Setup
+    public void setup(Blackhole blackhole) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; sb.length() < 64 * 1024; i++) {
+            sb.append("/tmp/spigotcommander-live-compiler-src-1/net/azisaba/spigotcommander/generated$0/Script").append(i)
+                    .append(".java:").append(i).append(": エラー: シンボルを見つけられません\n")
+                    .append("        return values.size() + counts.size() + new Script").append(i / 2).append("().run(x);\n")
+                    .append("                                                   ^\n");
+        }
+        diagnostics = sb.toString();
+        bytes = diagnostics.getBytes(StandardCharsets.UTF_8);
+        out = new BlackholeOutputStream(blackhole);
+    }
+
+    /**
+     * The way javac writes: through a writer that encodes and passes the bytes in chunks.
+     */
+    @Benchmark
+    public void writer() throws Exception {
+        Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+        writer.write(diagnostics);
+        writer.close();
+    }
+
+    @Benchmark
+    public void bytes() {
+        out.write(bytes, 0, bytes.length);
+        out.close();
+    }
+
+    @Benchmark
+    public void singleBytes() {
+        for (byte b : bytes) {
+            out.write(b);
+        }
+        out.close();
+    }
+
+    private static final class BlackholeOutputStream extends SimpleLoggedBufferedOutputStream {
+        private final Blackhole blackhole;
+
+        private BlackholeOutputStream(@NotNull Blackhole blackhole) {
+            super("SpigotCommander Benchmark", Level.WARN);
+            this.blackhole = blackhole;
+        }
+
+        @Override
+        protected void log(@NotNull String line) {
+            blackhole.consume(line);
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package net.azisaba.spigotcommander.benchmarks;
+
+import net.azisaba.spigotcommander.util.FileUtil;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Synthetic scripts for the benchmarks. Script {@code i} references script {@code i / 2}, so the set has the
+ * dependencies a real script set has without being a single long chain.
+ */
+final class ScriptSet {
+    static final String PACKAGE = "net.azisaba.spigotcommander.generated$0";
+
+    private ScriptSet() {
+    }
+
+    /**
+     * Returns the sources as they are written by users, i.e. with the package declaration that reload() rewrites.
+     * @return map of script name to source code
+     */
+    static @NotNull Map<String, String> generate(int count) {
+        Map<String, String> sources = new LinkedHashMap<>();
+        for (int i = 0; i < count; i++) {
+            sources.put("Script" + i, source(i));
+        }
+        return sources;
+    }
+
+    private static @NotNull String source(int i) {
+        String dependency = i == 0 ? "0" : "new Script" + (i / 2) + "().run(x)";
+        return "package net.azisaba.spigotcommander.classes;\n" +
+                "\n" +
+                "import java.util.ArrayList;\n" +
+                "import java.util.HashMap;\n" +
+                "import java.util.List;\n" +
+                "import java.util.Map;\n" +
+                "\n" +
+                "public class Script" + i + " {\n" +
+                "    private final List<String> values = new ArrayList<>();\n" +
+                "    private final Map<String, Integer> counts = new HashMap<>();\n" +
+                "\n" +
+                "    public int run(int x) {\n" +
+                "        for (int j = 0; j < 10; j++) {\n" +
+                "            String value = \"v\" + j + x;\n" +
+                "            values.add(value);\n" +
+                "            counts.merge(value, 1, Integer::sum);\n" +
+                "        }\n" +
+                "        Runnable r = () -> values.removeIf(s -> s.length() > 8);\n" +
+                "        r.run();\n" +
+                "        return values.size() + counts.size() + " + dependency + ";\n" +
+                "    }\n" +
+                "}\n";
+    }
+
+    /**
+     * Writes the sources (with the rewritten package) into the directory, laid out like reload() does.
+     * @return the source root
+     */
+    static @NotNull Path write(@NotNull Path root, @NotNull Map<String, String> sources) throws IOException {
+        Path dir = root.resolve(PACKAGE.replace('.', '/'));
+        Files.createDirectories(dir);
+        for (Map.Entry<String, String> entry : sources.entrySet()) {
+            FileUtil.writeString(dir.resolve(entry.getKey() + ".java"), entry.getValue().replace("package net.azisaba.spigotcommander.classes;", "package " + PACKAGE + ";"));
+        }
+        return root;
+    }
+}
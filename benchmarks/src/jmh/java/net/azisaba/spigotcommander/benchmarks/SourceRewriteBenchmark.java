@@ -0,0 +1,33 @@
+package net.azisaba.spigotcommander.benchmarks;
+
+import net.azisaba.spigotcommander.util.SourceUtil;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The package rewrite done for every script on each reload.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SourceRewriteBenchmark {
+    @Param({"1", "10", "100", "500"})
+    public int files;
+
+    private Map<String, String> sources;
+
+    @Setup
+    public void setup() {
+        sources = ScriptSet.generate(files);
+    }
+
+    @Benchmark
+    public void rewritePackage(Blackhole blackhole) {
+        for (String source : sources.values()) {
+            blackhole.consume(SourceUtil.rewritePackage(source, ScriptSet.PACKAGE));
+        }
+    }
+}
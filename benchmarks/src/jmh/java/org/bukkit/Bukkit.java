@@ -0,0 +1,9 @@
+package org.bukkit;
+
+/**
+ * Stub of the Bukkit class. The compiler only needs it to locate the "server jar" (see JavaCompiler.setupClasspath).
+ */
+public final class Bukkit {
+    private Bukkit() {
+    }
+}
@@ -0,0 +1,96 @@
+package org.bukkit.command;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Stub of the Bukkit Command. Method signatures match Paper 1.15.2 so that the plugin classes link against it.
+ */
+public abstract class Command {
+    private final String name;
+    private String description;
+    private String usageMessage;
+    private List<String> aliases;
+    private String permission;
+    private String permissionMessage;
+
+    protected Command(@NotNull String name) {
+        this(name, "", "/" + name, new ArrayList<>());
+    }
+
+    protected Command(@NotNull String name, @NotNull String description, @NotNull String usageMessage, @NotNull List<String> aliases) {
+        this.name = name;
+        this.description = description;
+        this.usageMessage = usageMessage;
+        this.aliases = aliases;
+    }
+
+    public abstract boolean execute(@NotNull CommandSender sender, @NotNull String commandLabel, @NotNull String[] args);
+
+    @NotNull
+    public List<String> tabComplete(@NotNull CommandSender sender, @NotNull String alias, @NotNull String[] args) throws IllegalArgumentException {
+        return Collections.emptyList();
+    }
+
+    @NotNull
+    public String getName() {
+        return name;
+    }
+
+    @Nullable
+    public String getPermission() {
+        return permission;
+    }
+
+    public void setPermission(@Nullable String permission) {
+        this.permission = permission;
+    }
+
+    @Nullable
+    public String getPermissionMessage() {
+        return permissionMessage;
+    }
+
+    @NotNull
+    public Command setPermissionMessage(@Nullable String permissionMessage) {
+        this.permissionMessage = permissionMessage;
+        return this;
+    }
+
+    @NotNull
+    public List<String> getAliases() {
+        return aliases;
+    }
+
+    @NotNull
+    public Command setAliases(@NotNull List<String> aliases) {
+        this.aliases = aliases;
+        return this;
+    }
+
+    @NotNull
+    public String getDescription() {
+        return description;
+    }
+
+    @NotNull
+    public Command setDescription(@NotNull String description) {
+        this.description = description;
+        return this;
+    }
+
+    @NotNull
+    public String getUsage() {
+        return usageMessage;
+    }
+
+    @NotNull
+    public Command setUsage(@NotNull String usage) {
+        this.usageMessage = usage;
+        return this;
+    }
+}
@@ -0,0 +1,10 @@
+package org.bukkit.command;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Stub of the Bukkit CommandExecutor.
+ */
+public interface CommandExecutor {
+    boolean onCommand(@NotNull CommandSender sender, @NotNull Command command, @NotNull String label, @NotNull String[] args);
+}
@@ -0,0 +1,15 @@
+package org.bukkit.command;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Stub of the Bukkit CommandSender with the methods used by the benchmarks.
+ */
+public interface CommandSender {
+    void sendMessage(@NotNull String message);
+
+    @NotNull
+    String getName();
+
+    boolean hasPermission(@NotNull String name);
+}
@@ -0,0 +1,14 @@
+package org.bukkit.command;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.List;
+
+/**
+ * Stub of the Bukkit TabCompleter.
+ */
+public interface TabCompleter {
+    @Nullable
+    List<String> onTabComplete(@NotNull CommandSender sender, @NotNull Command command, @NotNull String alias, @NotNull String[] args);
+}
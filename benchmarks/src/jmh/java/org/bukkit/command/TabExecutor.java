@@ -0,0 +1,7 @@
+package org.bukkit.command;
+
+/**
+ * Stub of the Bukkit TabExecutor.
+ */
+public interface TabExecutor extends TabCompleter, CommandExecutor {
+}
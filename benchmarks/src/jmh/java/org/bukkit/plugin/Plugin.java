@@ -0,0 +1,7 @@
+package org.bukkit.plugin;
+
+/**
+ * Stub of the Bukkit Plugin. ClassUtil only uses it as a constructor parameter type.
+ */
+public interface Plugin {
+}
@@ -0,0 +1,9 @@
+package org.bukkit.plugin.java;
+
+import org.bukkit.plugin.Plugin;
+
+/**
+ * Stub of the Bukkit JavaPlugin. ClassUtil only uses it as a constructor parameter type.
+ */
+public abstract class JavaPlugin implements Plugin {
+}
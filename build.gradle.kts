@@ -10,9 +10,19 @@ repositories {
     maven { url = uri("https://repo.papermc.io/repository/maven-public/") }
 }
 
+// runtime-only dependencies of the precompile tool (the server provides a logger to the plugin)
+val precompile by configurations.creating
+
 dependencies {
     compileOnly("com.destroystokyo.paper:paper-api:1.15.2-R0.1-SNAPSHOT")
     compileOnly("org.jetbrains:annotations:24.0.1")
+    precompile("org.slf4j:slf4j-simple:1.7.30")
+    // the tests only cover logic that does not need a running server
+    testImplementation("com.destroystokyo.paper:paper-api:1.15.2-R0.1-SNAPSHOT")
+    testCompileOnly("org.jetbrains:annotations:24.0.1")
+    testImplementation(platform("org.junit:junit-bom:5.10.2"))
+    testImplementation("org.junit.jupiter:junit-jupiter")
+    testRuntimeOnly("org.junit.platform:junit-platform-launcher")
 }
 
 java.toolchain.languageVersion.set(JavaLanguageVersion.of(8))
@@ -33,4 +43,33 @@ tasks {
     compileJava {
         options.encoding = "UTF-8"
     }
+
+    compileTestJava {
+        options.encoding = "UTF-8"
+    }
+
+    test {
+        useJUnitPlatform()
+    }
+
+    // ./gradlew precompileScripts -Pscripts.dir=<dir containing classes/ and config.yml> [-Pscripts.classpath=<jars>]
+    register<JavaExec>("precompileScripts") {
+        group = "build"
+        description = "Compiles the scripts into a bundle the plugin can load without a JDK (see compiler.bundle)."
+        val scriptsDir = file(project.findProperty("scripts.dir") ?: "src/main/resources")
+        val apiClasspath = configurations.compileClasspath.get().asPath +
+            (project.findProperty("scripts.classpath")?.let { File.pathSeparator + it } ?: "")
+        val output = layout.buildDirectory.file("scripts/bundle.jar")
+        inputs.dir(scriptsDir.resolve("classes"))
+        inputs.file(scriptsDir.resolve("config.yml"))
+        outputs.file(output)
+        classpath = sourceSets.main.get().runtimeClasspath + configurations.compileClasspath.get() + precompile
+        mainClass.set("net.azisaba.spigotcommander.util.tools.Precompiler")
+        args(
+            "--classes", scriptsDir.resolve("classes"),
+            "--config", scriptsDir.resolve("config.yml"),
+            "--classpath", apiClasspath,
+            "--output", output.get().asFile,
+        )
+    }
 }
@@ -1,2 +1,4 @@
 rootProject.name = "SpigotCommander"
 
+
+include("benchmarks")
@@ -0,0 +1,83 @@
+package net.azisaba.spigotcommander;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.function.BooleanSupplier;
+import java.util.function.Function;
+
+/**
+ * Makes sure only one reload runs at a time. A reload requested while another one is running cancels the running one
+ * (at its next check point) and is merged with all other requests made in the meantime into a single follow-up run.
+ * All callers get the same future, which is completed by the last run.
+ * @param <T> the result of a reload
+ */
+final class ReloadCoordinator<T> {
+    private final Function<BooleanSupplier, CompletableFuture<T>> pipeline;
+    private CompletableFuture<T> future;
+    private Run running;
+    private boolean rerun;
+
+    /**
+     * @param pipeline starts a reload; the argument returns true once the reload has been superseded, in which case
+     *                 the reload should stop as soon as it is safe to do so
+     */
+    ReloadCoordinator(@NotNull Function<BooleanSupplier, CompletableFuture<T>> pipeline) {
+        this.pipeline = pipeline;
+    }
+
+    synchronized @NotNull CompletableFuture<T> request() {
+        if (running == null) {
+            future = new CompletableFuture<>();
+            start();
+        } else {
+            rerun = true;
+            running.cancelled = true;
+        }
+        return future;
+    }
+
+    /**
+     * Returns whether a reload is running.
+     */
+    synchronized boolean isRunning() {
+        return running != null;
+    }
+
+    private void start() {
+        Run run = new Run();
+        running = run;
+        CompletableFuture<T> result;
+        try {
+            result = pipeline.apply(() -> run.cancelled);
+        } catch (RuntimeException e) {
+            result = new CompletableFuture<>();
+            result.completeExceptionally(e);
+        }
+        result.whenComplete((value, throwable) -> onComplete(run, value, throwable));
+    }
+
+    private void onComplete(@NotNull Run run, T value, Throwable throwable) {
+        CompletableFuture<T> completed;
+        synchronized (this) {
+            if (running != run) return;
+            if (rerun) {
+                rerun = false;
+                start();
+                return;
+            }
+            running = null;
+            completed = future;
+            future = null;
+        }
+        if (throwable != null) {
+            completed.completeExceptionally(throwable);
+        } else {
+            completed.complete(value);
+        }
+    }
+
+    private static final class Run {
+        private volatile boolean cancelled;
+    }
+}
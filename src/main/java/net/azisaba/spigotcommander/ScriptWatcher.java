@@ -0,0 +1,149 @@
+package net.azisaba.spigotcommander;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Watches the classes directory, the compiled directory (including its subdirectories) and config.yml, and reloads the
+ * plugin once no more changes have been seen for the debounce period. Watching and debouncing happen on their own threads.
+ */
+public class ScriptWatcher implements Closeable {
+    private static final Logger LOGGER = LoggerFactory.getLogger("SpigotCommander");
+    private final SpigotCommander plugin;
+    private final long debounceMillis;
+    private final Path dataFolder;
+    private final Path compiledDir;
+    private final WatchService watchService;
+    private final ScheduledExecutorService scheduler;
+    private final Thread thread;
+    private final Set<String> pendingChanges = new TreeSet<>();
+    private ScheduledFuture<?> pendingReload;
+
+    public ScriptWatcher(@NotNull SpigotCommander plugin, long debounceMillis) throws IOException {
+        this.plugin = plugin;
+        this.debounceMillis = debounceMillis;
+        this.dataFolder = plugin.getDataFolder().toPath().toAbsolutePath();
+        this.watchService = FileSystems.getDefault().newWatchService();
+        register(dataFolder);
+        register(dataFolder.resolve("classes"));
+        this.compiledDir = dataFolder.resolve("compiled");
+        registerAll(compiledDir);
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder().setNameFormat("SpigotCommander Watcher Debounce").setDaemon(true).build());
+        this.thread = new Thread(this::run, "SpigotCommander File Watcher");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    private void register(@NotNull Path dir) throws IOException {
+        if (!Files.isDirectory(dir)) return;
+        dir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+    }
+
+    /**
+     * Registers the directory and all directories under it, since the classes in the compiled directory are laid out
+     * by package and a watch key only covers the entries of a single directory.
+     */
+    private void registerAll(@NotNull Path root) throws IOException {
+        if (!Files.isDirectory(root)) return;
+        Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                register(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    public long getDebounceMillis() {
+        return debounceMillis;
+    }
+
+    private void run() {
+        while (!Thread.currentThread().isInterrupted()) {
+            WatchKey key;
+            try {
+                key = watchService.take();
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                return;
+            }
+            Path dir = (Path) key.watchable();
+            Set<String> changes = new TreeSet<>();
+            for (WatchEvent<?> event : key.pollEvents()) {
+                if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                    changes.add(dir.toString());
+                    continue;
+                }
+                Path path = (Path) event.context();
+                Path resolved = dir.resolve(path);
+                if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE && resolved.startsWith(compiledDir)) {
+                    // start watching new package directories (or the compiled directory itself)
+                    try {
+                        registerAll(resolved);
+                    } catch (IOException e) {
+                        LOGGER.warn("Failed to watch {}", resolved, e);
+                    }
+                }
+                // only config.yml and the compiled directory matter in the data folder (the cache directory is written
+                // by the reload itself)
+                if (dir.equals(dataFolder) && !path.toString().equals("config.yml") && !resolved.equals(compiledDir)) continue;
+                changes.add(dataFolder.relativize(resolved).toString());
+            }
+            if (!key.reset()) {
+                LOGGER.warn("No longer watching {}", dir);
+            }
+            if (!changes.isEmpty()) {
+                schedule(changes);
+            }
+        }
+    }
+
+    private synchronized void schedule(@NotNull Set<String> changes) {
+        pendingChanges.addAll(changes);
+        if (pendingReload != null) pendingReload.cancel(false);
+        pendingReload = scheduler.schedule(this::fire, debounceMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private void fire() {
+        Set<String> changes;
+        synchronized (this) {
+            changes = new TreeSet<>(pendingChanges);
+            pendingChanges.clear();
+            pendingReload = null;
+        }
+        if (changes.size() > 5) {
+            LOGGER.info("Detected changes in {} files, reloading", changes.size());
+        } else {
+            LOGGER.info("Detected changes in {}, reloading", changes);
+        }
+        plugin.reload();
+    }
+
+    @Override
+    public void close() throws IOException {
+        thread.interrupt();
+        scheduler.shutdownNow();
+        watchService.close();
+    }
+}
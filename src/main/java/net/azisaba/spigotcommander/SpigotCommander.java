@@ -1,74 +1,133 @@
 package net.azisaba.spigotcommander;
 
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import net.azisaba.spigotcommander.commands.AsyncCommandPool;
+import net.azisaba.spigotcommander.commands.LazyCommandExecutor;
+import net.azisaba.spigotcommander.commands.ScriptCommand;
+import net.azisaba.spigotcommander.commands.ScriptTabCompleteListener;
 import net.azisaba.spigotcommander.commands.SpigotCommanderCommand;
+import net.azisaba.spigotcommander.generation.GenerationTracker;
+import net.azisaba.spigotcommander.generation.ScriptGeneration;
+import net.azisaba.spigotcommander.metrics.ScriptMetrics;
+import net.azisaba.spigotcommander.metrics.StallWatchdog;
+import net.azisaba.spigotcommander.state.StateStore;
+import net.azisaba.spigotcommander.tasks.ScriptTask;
+import net.azisaba.spigotcommander.tasks.ScriptTaskScheduler;
+import net.azisaba.spigotcommander.timings.ReloadTimings;
+import net.azisaba.spigotcommander.timings.ReloadTimingsHistory;
 import net.azisaba.spigotcommander.util.ClassUtil;
+import net.azisaba.spigotcommander.util.ClasspathUtil;
 import net.azisaba.spigotcommander.util.CommandUtil;
+import net.azisaba.spigotcommander.util.EventExecutorFactory;
 import net.azisaba.spigotcommander.util.FileUtil;
+import net.azisaba.spigotcommander.util.PrecompiledClasses;
+import net.azisaba.spigotcommander.util.ScriptClassLoader;
+import net.azisaba.spigotcommander.util.SourceUtil;
+import net.azisaba.spigotcommander.util.tools.ArtifactStore;
+import net.azisaba.spigotcommander.util.tools.IncrementalCompiler;
 import net.azisaba.spigotcommander.util.tools.JavaCompiler;
 import net.azisaba.spigotcommander.util.tools.JavaTools;
+import net.azisaba.spigotcommander.util.tools.ScriptBundle;
+import net.azisaba.spigotcommander.util.tools.ScriptRegistry;
 import org.bukkit.Bukkit;
 import org.bukkit.command.Command;
 import org.bukkit.command.CommandExecutor;
-import org.bukkit.command.CommandSender;
-import org.bukkit.command.TabCompleter;
 import org.bukkit.configuration.ConfigurationSection;
 import org.bukkit.event.HandlerList;
 import org.bukkit.event.Listener;
+import org.bukkit.plugin.Plugin;
 import org.bukkit.plugin.java.JavaPlugin;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import java.io.File;
 import java.io.IOException;
 import java.net.URL;
-import java.net.URLClassLoader;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BooleanSupplier;
 import java.util.stream.Stream;
 
 public class SpigotCommander extends JavaPlugin {
     private static final AtomicLong INDEX = new AtomicLong((long) (Math.random() * 100000000));
-    private final AtomicReference<URLClassLoader> cl = new AtomicReference<>();
-    private final Map<String, Command> commands = new HashMap<>();
+    private final AtomicLong generationIndex = new AtomicLong();
+    private final AtomicReference<ScriptGeneration> generation = new AtomicReference<>();
+    private final GenerationTracker generationTracker = new GenerationTracker(0);
+    private final Map<String, ScriptCommand> commands = new HashMap<>();
     private final Executor syncExecutor = r -> Bukkit.getScheduler().runTask(this, r);
     private final Executor asyncExecutor = r -> Bukkit.getScheduler().runTaskAsynchronously(this, r);
+    private final ReloadTimingsHistory reloadTimings = new ReloadTimingsHistory(20);
+    private final ScriptMetrics metrics = new ScriptMetrics();
+    private final AsyncCommandPool asyncCommandPool = new AsyncCommandPool();
+    // plugins are instantiated on the server thread
+    private final StallWatchdog stallWatchdog = new StallWatchdog(Thread.currentThread());
+    private final ScriptTaskScheduler taskScheduler = new ScriptTaskScheduler(this, stallWatchdog);
+    private final PrecompiledClasses precompiled = new PrecompiledClasses();
+    private final StateStore stateStore = new StateStore();
+    private final ReloadCoordinator<ReloadTimings> reloadCoordinator = new ReloadCoordinator<>(this::runReload);
+    // futures of callSync waiting for the main thread, failed on disable so that async workers waiting for them exit
+    private final Set<CompletableFuture<?>> pendingSyncCalls = ConcurrentHashMap.newKeySet();
+    private volatile boolean disabling;
+    private ExecutorService reloadExecutor;
+    private ScriptTabCompleteListener tabCompleteListener;
+    private IncrementalCompiler incrementalCompiler;
+    private ScriptWatcher watcher;
 
     @Override
     public void onEnable() {
+        disabling = false;
         if (!JavaTools.isLoaded()) {
-            throw new RuntimeException("tools.jar (included in JDK) is not available. Path: " + JavaTools.TOOLS_JAR_PATH, JavaTools.UNAVAILABLE_REASON);
+            getSLF4JLogger().warn("tools.jar (included in JDK) is not available, only the classes in the compiled directory can be loaded. Path: {}", JavaTools.TOOLS_JAR_PATH, JavaTools.UNAVAILABLE_REASON);
         }
         Objects.requireNonNull(getCommand("spigotcommander")).setExecutor(new SpigotCommanderCommand(this));
+        reloadTimings.registerMBean();
+        // the coordinator runs one reload at a time, so the queue only has to hold the next one
+        reloadExecutor = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(1),
+                new ThreadFactoryBuilder().setNameFormat("SpigotCommander Reload").setDaemon(true).build());
+        Bukkit.getScheduler().runTaskTimer(this, generationTracker::check, 20 * 60, 20 * 60);
+        taskScheduler.start();
+        if (isPaperAsyncTabCompleteAvailable()) {
+            tabCompleteListener = new ScriptTabCompleteListener();
+        }
+        registerInternalListeners();
+        if (getConfig().getBoolean("state.persist", false)) {
+            try {
+                stateStore.load(getStateFile());
+            } catch (IOException e) {
+                getSLF4JLogger().warn("Failed to load {}", getStateFile(), e);
+            }
+        }
         // reload asynchronously
         reload();
     }
 
-    public @NotNull CompletableFuture<Void> reload() {
-        return CompletableFuture.runAsync(() -> {
-            // unregister listeners
-            HandlerList.unregisterAll(this);
-
-            // unregister commands
-            Map<String, Command> knownCommands = Bukkit.getCommandMap().getKnownCommands();
-            commands.forEach((label, command) -> {
-                knownCommands.remove(label, command);
-                knownCommands.remove("spigotcommander:" + label, command);
-            });
-            commands.clear();
-
-            // close class loader
-            if (cl.get() != null) {
-                try {
-                    cl.get().close();
-                } catch (IOException e) {
-                    getSLF4JLogger().error("Failed to close class loader", e);
-                }
-            }
+    /**
+     * Reloads the config and the scripts. Only one reload runs at a time: if a reload is already running, it is
+     * cancelled (unless it is already being activated) and all reloads requested in the meantime are merged into a
+     * single reload started after it, whose result is returned to all of the callers.
+     * @return future completed with the timings of the reload that applied the latest config and scripts
+     */
+    public @NotNull CompletableFuture<ReloadTimings> reload() {
+        return reloadCoordinator.request();
+    }
 
+    private @NotNull CompletableFuture<ReloadTimings> runReload(@NotNull BooleanSupplier cancelled) {
+        ReloadTimings timings = new ReloadTimings();
+        return CompletableFuture.supplyAsync(() -> {
             // generate default files
             saveDefaultConfig();
             if (!new File(getDataFolder(), "classes").exists()) {
@@ -78,68 +137,94 @@ public class SpigotCommander extends JavaPlugin {
 
             // reload config
             reloadConfig();
-        }, syncExecutor).thenApplyAsync(dummy -> {
+            stateStore.setMaxBytes(getConfig().getLong("state.max-size-kb", 0) * 1024);
+            generationTracker.setLeakWarningMillis(getConfig().getLong("generations.leak-warning-seconds", 300) * 1000);
+            asyncCommandPool.configure(
+                    getConfig().getInt("async-commands.threads", 4),
+                    getConfig().getInt("async-commands.queue-size", 64),
+                    getConfig().getInt("async-commands.per-sender-limit", 1));
+            taskScheduler.configure(
+                    (long) (getConfig().getDouble("task-scheduler.budget-ms", 5) * 1_000_000),
+                    getConfig().getInt("task-scheduler.async-threads", 2),
+                    getConfig().getInt("task-scheduler.async-queue-size", 32));
+            stallWatchdog.configure((long) (getConfig().getDouble("stall-watchdog.threshold-ms", 20) * 1_000_000));
+
             // compile all classes
-            String packageName = getNextPackageName();
+            String packageName;
+            ScriptClassLoader classLoader;
+            List<Path> artifacts = new ArrayList<>();
             try {
-                Path tmp = Files.createTempDirectory("spigotcommander-live-compiler-src-");
-                Path javaDir = tmp.resolve(packageName.replaceAll("\\.", "/"));
-                //noinspection ResultOfMethodCallIgnored
-                javaDir.toFile().mkdirs();
-                // prepare for compile
-                try (Stream<Path> stream = Files.list(getDataFolder().toPath().resolve("classes"))) {
-                    stream.forEach(sourcePath -> {
-                        Path targetPath = javaDir.resolve(sourcePath.getFileName().toString());
-                        try {
-                            Files.copy(sourcePath, targetPath);
-                            String source = FileUtil.readString(targetPath);
-                            StringBuilder stripped = new StringBuilder(3);
-                            if (source.startsWith("package ")) {
-                                source = source.substring(source.indexOf(';') + 1);
-                                while (source.startsWith("\n")) {
-                                    source = source.substring(1);
-                                    stripped.append("\n");
-                                }
-                            }
-                            source = "package " + packageName + ";" + stripped + source;
-                            FileUtil.writeString(targetPath, source);
-                        } catch (IOException e) {
-                            getSLF4JLogger().error("Failed to copy {} -> {}", sourcePath, targetPath);
+                Map<String, String> sources;
+                try (ReloadTimings.Timing ignored = timings.start(ReloadTimings.SOURCES)) {
+                    sources = readSources();
+                }
+                try (ReloadTimings.Timing ignored = timings.start(ReloadTimings.PRECOMPILED)) {
+                    precompiled.load(getDataFolder().toPath().resolve("compiled"));
+                }
+                ScriptBundle prebuilt;
+                try (ReloadTimings.Timing ignored = timings.start(ReloadTimings.CACHE)) {
+                    prebuilt = readPrebuiltBundle(sources);
+                }
+                if (prebuilt == null && !sources.isEmpty() && !JavaTools.isLoaded()) {
+                    throw new IllegalStateException("tools.jar (included in JDK) is required to compile " + sources.keySet() + ". Path: " + JavaTools.TOOLS_JAR_PATH, JavaTools.UNAVAILABLE_REASON);
+                }
+                // the classpath is only needed for compiling
+                if (prebuilt == null) {
+                    try (ReloadTimings.Timing ignored = timings.start(ReloadTimings.CLASSPATH)) {
+                        if (getConfig().getBoolean("compiler.auto-classpath", false)) {
+                            JavaCompiler.setupClasspath(getConfig().getStringList("classpath-imports"), sources.values(), getClasspathCandidates());
+                        } else {
+                            JavaCompiler.setupClasspath(getConfig().getStringList("classpath-imports"));
                         }
-                    });
+                        // scripts may reference the precompiled classes
+                        JavaCompiler.classpath.addAll(precompiled.getClasspath());
+                    }
                 }
-                // compile
-                JavaCompiler.setupClasspath(getConfig().getStringList("classpath-imports"));
-                Path compiled = JavaCompiler.compileAll(tmp.toFile(), true).toPath();
-                Runtime.getRuntime().addShutdownHook(new Thread(() -> {
-                    try {
-                        FileUtil.deleteRecursively(compiled);
-                    } catch (IOException e) {
-                        //noinspection CallToPrintStackTrace
-                        e.printStackTrace();
+                checkCancelled(cancelled);
+                boolean incremental = getConfig().getBoolean("compiler.incremental", false);
+                if (prebuilt != null || incremental || getConfig().getBoolean("compiler.in-memory", false)) {
+                    ScriptBundle bundle = prebuilt != null ? prebuilt : compileInMemory(sources, incremental, timings, cancelled);
+                    packageName = bundle.getPackageName();
+                    Map<String, byte[]> resources;
+                    try (ReloadTimings.Timing ignored = timings.start(ReloadTimings.SOURCES)) {
+                        resources = readResources(packageName);
                     }
-                }));
-                // post compile
-                // remove source directory
-                FileUtil.deleteRecursively(tmp);
-                cl.set(new URLClassLoader(new URL[]{compiled.toUri().toURL()}, getClassLoader()));
+                    Map<String, byte[]> classes = new HashMap<>(bundle.getClasses());
+                    classes.putAll(precompiled.getClasses());
+                    resources.putAll(precompiled.getResources());
+                    classLoader = new ScriptClassLoader(new URL[0], classes, resources, getClassLoader());
+                } else {
+                    packageName = getNextPackageName();
+                    Path compiled = compileToDirectory(packageName, timings, cancelled);
+                    artifacts.add(compiled);
+                    // the maps are looked up before the URL, so precompiled classes take precedence as in the in-memory mode
+                    classLoader = new ScriptClassLoader(new URL[]{compiled.toUri().toURL()}, new HashMap<>(precompiled.getClasses()), new HashMap<>(precompiled.getResources()), getClassLoader());
+                }
+            } catch (RuntimeException e) {
+                throw e;
             } catch (Exception e) {
                 throw new RuntimeException(e);
             }
-            return packageName;
-        }).thenAcceptAsync(packageName -> {
+            ScriptGeneration loaded = new ScriptGeneration(
+                    generationIndex.incrementAndGet(),
+                    packageName,
+                    classLoader,
+                    artifacts,
+                    getConfig().getBoolean("metrics.enabled", true) ? metrics : null);
+            // do not run the constructors of the scripts of a superseded reload
+            if (cancelled.getAsBoolean()) {
+                loaded.retire();
+                checkCancelled(cancelled);
+            }
+
             // load listeners
             for (String className : getConfig().getStringList("listeners")) {
-                // construct command executor
-                Listener listener;
+                // construct listener
                 try {
-                    listener = (Listener) ClassUtil.construct(cl.get(), packageName + "." + className, this);
+                    loaded.getListeners().add((Listener) constructScript(classLoader, ScriptRegistry.resolveClassName(packageName, className), timings));
                 } catch (Exception e) {
                     getSLF4JLogger().error("Failed to load class {}", className, e);
-                    continue;
                 }
-                Bukkit.getPluginManager().registerEvents(listener, this);
-                getSLF4JLogger().info("Added listener {}", listener);
             }
             // load commands
             ConfigurationSection commandsSection = getConfig().getConfigurationSection("commands");
@@ -153,68 +238,362 @@ public class SpigotCommander extends JavaPlugin {
                         continue;
                     }
                     String className = commandSection.getString("class");
-                    // construct command executor
+                    // construct command executor, or defer it to the first use
                     CommandExecutor commandExecutor;
-                    try {
-                        commandExecutor = (CommandExecutor) ClassUtil.construct(cl.get(), packageName + "." + className, this);
-                    } catch (Exception e) {
-                        getSLF4JLogger().error("Failed to load class {}", className, e);
-                        continue;
+                    String binaryName = ScriptRegistry.resolveClassName(packageName, className);
+                    if (commandSection.getBoolean("lazy", getConfig().getBoolean("lazy-commands", false))) {
+                        if (classLoader.getResource(binaryName.replace('.', '/') + ".class") == null) {
+                            getSLF4JLogger().error("Failed to load class {}", className, new ClassNotFoundException(binaryName));
+                            continue;
+                        }
+                        commandExecutor = new LazyCommandExecutor(classLoader, binaryName, this);
+                    } else {
+                        try {
+                            commandExecutor = (CommandExecutor) constructScript(classLoader, binaryName, timings);
+                        } catch (Exception e) {
+                            getSLF4JLogger().error("Failed to load class {}", className, e);
+                            continue;
+                        }
                     }
-                    // register command
                     String permission = commandSection.getString("permission");
                     String permissionMessage = commandSection.getString("permissionMessage");
                     String description = Objects.requireNonNull(commandSection.getString("description", ""));
                     String usage = Objects.requireNonNull(commandSection.getString("usage", ""));
                     List<String> aliases = commandSection.getStringList("aliases");
-                    CommandExecutor finalCommandExecutor = commandExecutor;
-                    Command command = new Command(commandName, description, usage, aliases) {
-                        @Override
-                        public boolean execute(@NotNull CommandSender sender, @NotNull String commandLabel, @NotNull String[] args) {
-                            return finalCommandExecutor.onCommand(sender, this, commandLabel, args);
-                        }
-
-                        @Override
-                        public @NotNull List<String> tabComplete(@NotNull CommandSender sender, @NotNull String alias, @NotNull String[] args) throws IllegalArgumentException {
-                            if (finalCommandExecutor instanceof TabCompleter) {
-                                List<String> list = ((TabCompleter) finalCommandExecutor).onTabComplete(sender, this, alias, args);
-                                if (list != null) return list;
-                            }
-                            return super.tabComplete(sender, alias, args);
-                        }
-                    };
+                    ScriptCommand command = new ScriptCommand(commandName, description, usage, aliases, commandExecutor);
                     command.setPermission(permission);
                     command.setPermissionMessage(permissionMessage);
-                    commands.put(commandName, command);
-                    Bukkit.getCommandMap().register(commandName, "spigotcommander", command);
-                    getSLF4JLogger().info("Added command {} -> {} ({})", commandName, command, commandExecutor);
+                    command.setMetrics(loaded.getMetrics());
+                    command.setStallWatchdog(stallWatchdog);
+                    command.setAsyncTabComplete(commandSection.getString("tab-complete", "sync").equalsIgnoreCase("async"));
+                    long cacheMillis = commandSection.getLong("tab-complete-cache-ms", 0);
+                    if (cacheMillis > 0) {
+                        command.setTabCompleteCache(CacheBuilder.newBuilder()
+                                .maximumSize(getConfig().getLong("tab-complete.cache-size", 1000))
+                                .expireAfterWrite(cacheMillis, TimeUnit.MILLISECONDS)
+                                .build());
+                    }
+                    String execution = commandSection.getString("execution", "sync");
+                    if (execution.equalsIgnoreCase("async")) {
+                        command.setAsyncPool(asyncCommandPool);
+                    } else if (!execution.equalsIgnoreCase("sync")) {
+                        getSLF4JLogger().warn("Unknown execution mode {} of command {}, running on the main thread", execution, commandName);
+                    }
+                    loaded.getCommands().put(commandName, command);
                 }
-                try {
-                    CommandUtil.syncCommands();
-                } catch (Exception e) {
-                    getSLF4JLogger().warn("Failed to sync commands", e);
+            }
+            // load tasks
+            ConfigurationSection tasksSection = getConfig().getConfigurationSection("tasks");
+            if (tasksSection != null) {
+                for (String taskName : tasksSection.getKeys(false)) {
+                    ConfigurationSection taskSection = tasksSection.getConfigurationSection(taskName);
+                    if (taskSection == null) continue;
+                    int interval = taskSection.getInt("interval-ticks", 0);
+                    if (interval < 1) {
+                        getSLF4JLogger().warn("Skipping task {}: interval-ticks must be at least 1", taskName);
+                        continue;
+                    }
+                    String className = taskSection.getString("class");
+                    try {
+                        Runnable runnable = (Runnable) constructScript(classLoader, ScriptRegistry.resolveClassName(packageName, className), timings);
+                        ScriptMetrics taskMetrics = loaded.getMetrics();
+                        loaded.getTasks().add(new ScriptTask(taskName, runnable, interval, taskSection.getBoolean("async", false), taskMetrics == null ? null : taskMetrics.task(taskName)));
+                    } catch (Exception e) {
+                        getSLF4JLogger().error("Failed to load class {}", className, e);
+                    }
                 }
             }
-        }, asyncExecutor).exceptionally(t -> {
-            getSLF4JLogger().error("Failed to reload", t);
+            return loaded;
+        }, reloadExecutor).thenComposeAsync(loaded -> {
+            try {
+                checkCancelled(cancelled);
+                return activate(loaded, timings);
+            } catch (RuntimeException | Error e) {
+                if (generation.get() != loaded) loaded.retire();
+                throw e;
+            }
+        }, syncExecutor).handleAsync((v, t) -> {
+            Throwable cause = t instanceof CompletionException && t.getCause() != null ? t.getCause() : t;
+            if (cause instanceof CancellationException) {
+                getSLF4JLogger().info("Reload was superseded by a newer one");
+                timings.finish(false);
+                return timings;
+            }
+            if (t != null) getSLF4JLogger().error("Failed to reload", t);
+            timings.finish(t == null);
+            reloadTimings.add(timings);
+            // starting or stopping the watcher does file I/O, so it is done on the reload thread, not the main thread
+            updateWatcher();
+            return timings;
+        }, reloadExecutor);
+    }
+
+    private static void checkCancelled(@NotNull BooleanSupplier cancelled) {
+        if (cancelled.getAsBoolean()) throw new CancellationException("Superseded by a newer reload");
+    }
+
+    /**
+     * Replaces the listeners and commands of the current generation with the ones of the new generation, and retires
+     * the current generation. Must be called on the main thread.
+     * @return future completed when the commands are synced to the players
+     */
+    private @NotNull CompletableFuture<Void> activate(@NotNull ScriptGeneration loaded, @NotNull ReloadTimings timings) {
+        // remove listeners and commands that no longer exist
+        boolean changed = false;
+        try (ReloadTimings.Timing ignored = timings.start(ReloadTimings.UNREGISTER)) {
+            HandlerList.unregisterAll(this);
+            registerInternalListeners();
+            for (Iterator<ScriptCommand> it = commands.values().iterator(); it.hasNext(); ) {
+                ScriptCommand command = it.next();
+                if (!loaded.getCommands().containsKey(command.getName())) {
+                    unregisterCommand(command);
+                    it.remove();
+                    changed = true;
+                }
+            }
+        }
+
+        try (ReloadTimings.Timing ignored = timings.start(ReloadTimings.REGISTRATION)) {
+            // add listeners
+            for (Listener listener : loaded.getListeners()) {
+                EventExecutorFactory.registerEvents(listener, this, loaded.getMetrics(), stallWatchdog);
+                getSLF4JLogger().info("Added listener {}", listener);
+            }
+
+            // replace commands, touching the command map only if needed
+            for (ScriptCommand command : loaded.getCommands().values()) {
+                ScriptCommand existing = commands.get(command.getName());
+                if (existing != null && existing.hasSameRegistration(command)) {
+                    existing.update(command);
+                    getSLF4JLogger().info("Updated command {} ({})", command.getName(), command.getExecutor());
+                    continue;
+                }
+                if (existing != null) unregisterCommand(existing);
+                commands.put(command.getName(), command);
+                Bukkit.getCommandMap().register(command.getName(), "spigotcommander", command);
+                getSLF4JLogger().info("Added command {} -> {} ({})", command.getName(), command, command.getExecutor());
+                changed = true;
+            }
+        }
+
+        if (tabCompleteListener != null) {
+            tabCompleteListener.setCommands(getRegisteredLabels());
+        }
+
+        // replace tasks, cancelling the ones of the previous generation
+        taskScheduler.setTasks(loaded.getTasks());
+
+        // retire the previous generation (closes the class loader and deletes the files)
+        ScriptGeneration previous = generation.getAndSet(loaded);
+        if (previous != null) {
+            asyncExecutor.execute(() -> {
+                previous.retire();
+                generationTracker.track(previous);
+            });
+        }
+
+        if (changed) {
+            return CommandUtil.requestSyncCommands(this).thenAccept(nanos -> timings.add(ReloadTimings.SYNC_COMMANDS, nanos));
+        }
+        return CompletableFuture.completedFuture(null);
+    }
+
+    /**
+     * Calls the task on the main thread, or immediately if called from the main thread. Scripts running off the main
+     * thread (like commands with {@code execution: async}) can use it to call the Bukkit API, e.g.
+     * {@code plugin.callSync(() -> player.getLocation()).get(5, TimeUnit.SECONDS)}.
+     * <p>
+     * Wait for the result with a timeout rather than {@code join()}: the main thread may be busy for a while, and the
+     * task never runs once the plugin is being disabled. In that case the future is completed with a
+     * {@link CancellationException} when the plugin starts disabling, before it waits for the async commands to finish.
+     * @return future completed with the result of the task, or exceptionally if the task threw, could not be
+     *         scheduled or the plugin was disabled before it ran
+     */
+    public <T> @NotNull CompletableFuture<T> callSync(@NotNull Callable<T> task) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        Runnable runnable = () -> {
+            try {
+                future.complete(task.call());
+            } catch (Throwable t) {
+                future.completeExceptionally(t);
+            }
+        };
+        if (Bukkit.isPrimaryThread()) {
+            runnable.run();
+        } else {
+            pendingSyncCalls.add(future);
+            future.whenComplete((result, t) -> pendingSyncCalls.remove(future));
+            // checked after adding, so that either this or onDisable fails the future
+            if (disabling) {
+                future.completeExceptionally(new CancellationException("Plugin is disabled"));
+                return future;
+            }
+            try {
+                Bukkit.getScheduler().runTask(this, runnable);
+            } catch (RuntimeException e) {
+                // plugin is disabled
+                future.completeExceptionally(e);
+            }
+        }
+        return future;
+    }
+
+    /**
+     * Runs the task on the main thread, or immediately if called from the main thread.
+     * @see #callSync(Callable)
+     */
+    public @NotNull CompletableFuture<Void> runSync(@NotNull Runnable task) {
+        return callSync(() -> {
+            task.run();
             return null;
         });
     }
 
-    @Override
-    public void onDisable() {
-        // unregister commands
+    /**
+     * Returns the store scripts can keep their state in across reloads (and restarts, if state.persist is enabled).
+     */
+    public @NotNull StateStore getStateStore() {
+        return stateStore;
+    }
+
+    public @NotNull AsyncCommandPool getAsyncCommandPool() {
+        return asyncCommandPool;
+    }
+
+    public @NotNull StallWatchdog getStallWatchdog() {
+        return stallWatchdog;
+    }
+
+    public @NotNull ScriptTaskScheduler getTaskScheduler() {
+        return taskScheduler;
+    }
+
+    public @Nullable ScriptGeneration getGeneration() {
+        return generation.get();
+    }
+
+    public @NotNull GenerationTracker getGenerationTracker() {
+        return generationTracker;
+    }
+
+    public @NotNull ReloadTimingsHistory getReloadTimings() {
+        return reloadTimings;
+    }
+
+    public @NotNull ScriptMetrics getMetrics() {
+        return metrics;
+    }
+
+    private @NotNull Object constructScript(@NotNull ClassLoader classLoader, @NotNull String className, @NotNull ReloadTimings timings) throws ClassNotFoundException {
+        Class<?> clazz;
+        try (ReloadTimings.Timing ignored = timings.start(ReloadTimings.CLASS_LOADING)) {
+            clazz = classLoader.loadClass(className);
+        }
+        try (ReloadTimings.Timing ignored = timings.start(ReloadTimings.CONSTRUCT)) {
+            return ClassUtil.newInstance(clazz, this);
+        }
+    }
+
+    /**
+     * Registers the listeners of the plugin itself. HandlerList.unregisterAll(this) on reload removes them along with
+     * the script listeners.
+     */
+    private void registerInternalListeners() {
+        if (tabCompleteListener != null) {
+            Bukkit.getPluginManager().registerEvents(tabCompleteListener, this);
+        }
+    }
+
+    private static boolean isPaperAsyncTabCompleteAvailable() {
+        try {
+            Class.forName("com.destroystokyo.paper.event.server.AsyncTabCompleteEvent");
+            return true;
+        } catch (ClassNotFoundException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Returns the labels the script commands are actually registered with (aliases may be taken by other commands).
+     */
+    private @NotNull Map<String, ScriptCommand> getRegisteredLabels() {
+        Set<Command> registered = Collections.newSetFromMap(new IdentityHashMap<>());
+        registered.addAll(commands.values());
+        Map<String, ScriptCommand> labels = new HashMap<>();
+        for (Map.Entry<String, Command> entry : Bukkit.getCommandMap().getKnownCommands().entrySet()) {
+            if (registered.contains(entry.getValue())) {
+                labels.put(entry.getKey(), (ScriptCommand) entry.getValue());
+            }
+        }
+        return labels;
+    }
+
+    private void unregisterCommand(@NotNull ScriptCommand command) {
         Map<String, Command> knownCommands = Bukkit.getCommandMap().getKnownCommands();
-        commands.forEach((label, command) -> {
+        List<String> labels = new ArrayList<>(command.getConfiguredAliases());
+        labels.add(command.getName());
+        for (String label : labels) {
+            label = label.toLowerCase(Locale.ENGLISH).trim();
             knownCommands.remove(label, command);
             knownCommands.remove("spigotcommander:" + label, command);
-        });
+        }
+        command.unregister(Bukkit.getCommandMap());
+    }
+
+    /**
+     * Starts, restarts or stops the file watcher according to the config.
+     */
+    private synchronized void updateWatcher() {
+        boolean enabled = getConfig().getBoolean("watcher.enabled", false);
+        long debounceMillis = getConfig().getLong("watcher.debounce-ms", 500);
+        if (watcher != null && (!enabled || watcher.getDebounceMillis() != debounceMillis)) {
+            closeWatcher();
+        }
+        if (enabled && watcher == null && isEnabled()) {
+            try {
+                watcher = new ScriptWatcher(this, debounceMillis);
+                getSLF4JLogger().info("Watching {} for changes", getDataFolder());
+            } catch (IOException e) {
+                getSLF4JLogger().error("Failed to start file watcher", e);
+            }
+        }
+    }
+
+    private synchronized void closeWatcher() {
+        if (watcher == null) return;
+        try {
+            watcher.close();
+        } catch (IOException e) {
+            getSLF4JLogger().warn("Failed to close file watcher", e);
+        }
+        watcher = null;
+    }
+
+    @Override
+    public void onDisable() {
+        closeWatcher();
+        ReloadTimingsHistory.unregisterMBean();
+        // the main thread is busy here until the plugin is disabled, so the tasks waiting for it would never run
+        disabling = true;
+        for (CompletableFuture<?> future : new ArrayList<>(pendingSyncCalls)) {
+            future.completeExceptionally(new CancellationException("Plugin is disabled"));
+        }
+        asyncCommandPool.shutdown(5, TimeUnit.SECONDS);
+        taskScheduler.shutdown();
+        stallWatchdog.shutdown();
+        if (reloadExecutor != null) reloadExecutor.shutdownNow();
+        // unregister commands
+        commands.values().forEach(this::unregisterCommand);
         commands.clear();
-        if (cl.get() != null) {
+        ScriptGeneration current = generation.getAndSet(null);
+        if (current != null) {
+            current.retire();
+        }
+        if (getConfig().getBoolean("state.persist", false)) {
             try {
-                cl.get().close();
+                stateStore.save(getStateFile());
             } catch (IOException e) {
-                getSLF4JLogger().error("Failed to close URLClassLoader", e);
+                getSLF4JLogger().warn("Failed to save {}", getStateFile(), e);
             }
         }
         try {
@@ -224,6 +603,243 @@ public class SpigotCommander extends JavaPlugin {
         }
     }
 
+    /**
+     * Compiles the scripts into a temporary directory.
+     * @return the directory containing the compiled classes, to be deleted by the caller
+     */
+    private @NotNull Path compileToDirectory(@NotNull String packageName, @NotNull ReloadTimings timings, @NotNull BooleanSupplier cancelled) throws IOException {
+        ReloadTimings.Timing sourcesTiming = timings.start(ReloadTimings.SOURCES);
+        Path tmp = Files.createTempDirectory("spigotcommander-live-compiler-src-");
+        Path javaDir = tmp.resolve(packageName.replaceAll("\\.", "/"));
+        //noinspection ResultOfMethodCallIgnored
+        javaDir.toFile().mkdirs();
+        // prepare for compile
+        try (ReloadTimings.Timing ignored = sourcesTiming;
+             Stream<Path> stream = Files.list(getDataFolder().toPath().resolve("classes"))) {
+            stream.forEach(sourcePath -> {
+                Path targetPath = javaDir.resolve(sourcePath.getFileName().toString());
+                try {
+                    Files.copy(sourcePath, targetPath);
+                    FileUtil.writeString(targetPath, SourceUtil.rewritePackage(FileUtil.readString(targetPath), packageName));
+                } catch (IOException e) {
+                    getSLF4JLogger().error("Failed to copy {} -> {}", sourcePath, targetPath);
+                }
+            });
+        }
+        // compile
+        Path compiled;
+        try (ReloadTimings.Timing ignored = timings.start(ReloadTimings.COMPILE)) {
+            compiled = JavaCompiler.compileAll(tmp.toFile(), true, timings::addFile, cancelled).toPath();
+        } finally {
+            // post compile
+            // remove source directory (also when the reload was superseded)
+            FileUtil.deleteRecursively(tmp);
+        }
+        return compiled;
+    }
+
+    /**
+     * Reads the scripts in the classes directory.
+     * @return map of script name (file name without .java) to source code
+     */
+    private @NotNull Map<String, String> readSources() throws IOException {
+        Map<String, String> sources = new HashMap<>();
+        try (Stream<Path> stream = Files.list(getDataFolder().toPath().resolve("classes"))) {
+            for (Path sourcePath : (Iterable<Path>) stream::iterator) {
+                String fileName = sourcePath.getFileName().toString();
+                if (fileName.endsWith(".java") && !Files.isDirectory(sourcePath)) {
+                    sources.put(fileName.substring(0, fileName.length() - ".java".length()), FileUtil.readString(sourcePath));
+                }
+            }
+        }
+        return sources;
+    }
+
+    /**
+     * Returns the jars of the server and all loaded plugins, each mapped to the jars of the plugins it depends on.
+     */
+    private @NotNull Map<String, Set<String>> getClasspathCandidates() {
+        Map<String, String> pluginJars = new HashMap<>();
+        for (Plugin plugin : Bukkit.getPluginManager().getPlugins()) {
+            try {
+                pluginJars.put(plugin.getName(), ClasspathUtil.getClasspath(plugin.getClass()));
+            } catch (RuntimeException e) {
+                getSLF4JLogger().debug("Failed to get the classpath of {}", plugin.getName(), e);
+            }
+        }
+        Map<String, Set<String>> candidates = new HashMap<>();
+        candidates.put(ClasspathUtil.getClasspath(Bukkit.class), new HashSet<>());
+        for (Plugin plugin : Bukkit.getPluginManager().getPlugins()) {
+            String jar = pluginJars.get(plugin.getName());
+            if (jar == null) continue;
+            Set<String> required = candidates.computeIfAbsent(jar, k -> new HashSet<>());
+            List<String> dependencies = new ArrayList<>(plugin.getDescription().getDepend());
+            dependencies.addAll(plugin.getDescription().getSoftDepend());
+            for (String dependency : dependencies) {
+                String dependencyJar = pluginJars.get(dependency);
+                if (dependencyJar != null) required.add(dependencyJar);
+            }
+        }
+        return candidates;
+    }
+
+    private @NotNull ScriptBundle compileInMemory(@NotNull Map<String, String> sources, boolean incremental, @NotNull ReloadTimings timings, @NotNull BooleanSupplier cancelled) throws IOException {
+        Map<String, String> sourceHashes = ScriptBundle.hashSources(sources);
+        boolean useCache = getConfig().getBoolean("compiler.cache", false);
+        Path cacheFile = getDataFolder().toPath().resolve("cache").resolve("scripts.jar");
+        if (useCache && Files.exists(cacheFile)) {
+            try (ReloadTimings.Timing ignored = timings.start(ReloadTimings.CACHE)) {
+                ScriptBundle cached = ScriptBundle.read(cacheFile);
+                if (cached.isUpToDate(sourceHashes)) {
+                    getSLF4JLogger().info("Loaded {} classes from {}", cached.getClasses().size(), cacheFile);
+                    if (!cached.getFailedScripts().isEmpty()) {
+                        getSLF4JLogger().warn("These scripts failed to compile and are not loaded: {}", cached.getFailedScripts());
+                    }
+                    return cached;
+                }
+                getSLF4JLogger().info("Compiled scripts in {} are outdated, recompiling", cacheFile);
+            } catch (IOException | RuntimeException e) {
+                getSLF4JLogger().warn("Failed to read {}", cacheFile, e);
+            }
+        }
+        // scripts compiled by another server sharing the artifact store
+        ArtifactStore store = getArtifactStore();
+        String key = null;
+        boolean locked = false;
+        if (store != null) {
+            ScriptBundle shared = null;
+            try (ReloadTimings.Timing ignored = timings.start(ReloadTimings.CACHE)) {
+                key = ArtifactStore.getKey(sourceHashes);
+                shared = store.fetch(key);
+                if (shared == null && !(locked = store.tryLock(key))) shared = store.await(key);
+            } catch (IOException | RuntimeException e) {
+                getSLF4JLogger().warn("Failed to read compiled scripts from {}", store.getDirectory(), e);
+            }
+            if (shared != null) {
+                getSLF4JLogger().info("Loaded {} classes from {}", shared.getClasses().size(), store.getDirectory());
+                if (!shared.getFailedScripts().isEmpty()) {
+                    getSLF4JLogger().warn("These scripts failed to compile and are not loaded: {}", shared.getFailedScripts());
+                }
+                if (useCache) {
+                    // the fingerprint of the local cache depends on the local classpath; the registry is kept as is
+                    writeCache(new ScriptBundle(shared.getPackageName(), ScriptBundle.getFingerprint(sourceHashes), sourceHashes, shared.getClasses(), shared.getRegistry()), cacheFile, timings);
+                }
+                return shared;
+            }
+        }
+        try {
+            ScriptBundle bundle = compileBundle(sources, sourceHashes, incremental, timings, cancelled);
+            if (useCache) writeCache(bundle, cacheFile, timings);
+            if (locked) {
+                try (ReloadTimings.Timing ignored = timings.start(ReloadTimings.CACHE)) {
+                    store.publish(key, bundle);
+                } catch (IOException e) {
+                    getSLF4JLogger().warn("Failed to publish compiled scripts to {}", store.getDirectory(), e);
+                }
+            }
+            return bundle;
+        } finally {
+            if (locked) store.unlock(key);
+        }
+    }
+
+    private @NotNull ScriptBundle compileBundle(@NotNull Map<String, String> sources, @NotNull Map<String, String> sourceHashes, boolean incremental, @NotNull ReloadTimings timings,
+                                                @NotNull BooleanSupplier cancelled) throws IOException {
+        String packageName;
+        Map<String, byte[]> classes;
+        if (incremental) {
+            // incremental compilation reuses bytecode, so the package name must stay the same
+            if (incrementalCompiler == null) incrementalCompiler = new IncrementalCompiler(getNextPackageName());
+            packageName = incrementalCompiler.getPackageName();
+            try (ReloadTimings.Timing ignored = timings.start(ReloadTimings.COMPILE)) {
+                classes = incrementalCompiler.compile(sources, true, cancelled);
+            }
+        } else {
+            packageName = getNextPackageName();
+            Map<String, String> rewritten;
+            try (ReloadTimings.Timing ignored = timings.start(ReloadTimings.SOURCES)) {
+                rewritten = SourceUtil.rewritePackages(sources, packageName);
+            }
+            try (ReloadTimings.Timing ignored = timings.start(ReloadTimings.COMPILE)) {
+                classes = JavaCompiler.compileInMemory(rewritten, Collections.emptyMap(), null, true, cancelled);
+            }
+        }
+        return new ScriptBundle(packageName, ScriptBundle.getFingerprint(sourceHashes), sourceHashes, classes);
+    }
+
+    /**
+     * Reads the bundle built by the precompile tool, configured in compiler.bundle (relative to the data folder).
+     * @param sources the scripts in the classes directory, which must be the ones the bundle was compiled from (if
+     *                any, so that servers can be deployed with the bundle only)
+     * @return the bundle, or null if not configured or not usable
+     */
+    private @Nullable ScriptBundle readPrebuiltBundle(@NotNull Map<String, String> sources) {
+        String name = getConfig().getString("compiler.bundle", "");
+        if (name == null || name.isEmpty()) return null;
+        Path path = getDataFolder().toPath().resolve(name);
+        if (!Files.exists(path)) {
+            getSLF4JLogger().warn("{} does not exist, compiling the scripts instead", path);
+            return null;
+        }
+        ScriptBundle bundle;
+        try {
+            bundle = ScriptBundle.read(path);
+        } catch (IOException | RuntimeException e) {
+            getSLF4JLogger().warn("Failed to read {}, compiling the scripts instead", path, e);
+            return null;
+        }
+        if (!sources.isEmpty() && !ScriptBundle.hashSources(sources).equals(bundle.getSourceHashes())) {
+            getSLF4JLogger().warn("The scripts in the classes directory differ from the ones in {}, compiling the scripts instead", path);
+            return null;
+        }
+        if (Integer.parseInt(JavaCompiler.getMajorJavaVersion(bundle.getJavaVersion())) > Integer.parseInt(JavaCompiler.getMajorJavaVersion())) {
+            getSLF4JLogger().warn("{} is compiled with Java {} which is newer than the running Java, compiling the scripts instead", path, bundle.getJavaVersion());
+            return null;
+        }
+        ScriptRegistry registry = ScriptRegistry.fromConfig(getConfig(), bundle.getPackageName());
+        if (!bundle.getRegistry().isEmpty() && !bundle.getRegistry().equals(registry)) {
+            getSLF4JLogger().warn("Listeners and commands in the config differ from the ones {} was checked against: {} (bundle: {})", path, registry, bundle.getRegistry());
+        }
+        getSLF4JLogger().info("Loaded {} classes from {}", bundle.getClasses().size(), path);
+        return bundle;
+    }
+
+    private void writeCache(@NotNull ScriptBundle bundle, @NotNull Path cacheFile, @NotNull ReloadTimings timings) {
+        try (ReloadTimings.Timing ignored = timings.start(ReloadTimings.CACHE)) {
+            bundle.write(cacheFile);
+        } catch (IOException e) {
+            getSLF4JLogger().warn("Failed to write {}", cacheFile, e);
+        }
+    }
+
+    /**
+     * @return the artifact store configured in artifact-store.directory (relative to the data folder), or null if
+     *         not configured
+     */
+    private @Nullable ArtifactStore getArtifactStore() {
+        String directory = getConfig().getString("artifact-store.directory", "");
+        if (directory == null || directory.isEmpty()) return null;
+        return new ArtifactStore(getDataFolder().toPath().resolve(directory), getConfig().getLong("artifact-store.wait-seconds", 30) * 1000);
+    }
+
+    private @NotNull Map<String, byte[]> readResources(@NotNull String packageName) throws IOException {
+        Map<String, byte[]> resources = new HashMap<>();
+        String packagePath = packageName.replace('.', '/');
+        try (Stream<Path> stream = Files.list(getDataFolder().toPath().resolve("classes"))) {
+            for (Path path : (Iterable<Path>) stream::iterator) {
+                String fileName = path.getFileName().toString();
+                if (!fileName.endsWith(".java") && !Files.isDirectory(path)) {
+                    resources.put(packagePath + "/" + fileName, FileUtil.readAllBytes(path));
+                }
+            }
+        }
+        return resources;
+    }
+
+    private @NotNull Path getStateFile() {
+        return getDataFolder().toPath().resolve("state").resolve("state.bin");
+    }
+
     private static @NotNull String getNextPackageName() {
         return "net.azisaba.spigotcommander.generated$" + INDEX.getAndIncrement();
     }
@@ -0,0 +1,132 @@
+package net.azisaba.spigotcommander.commands;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.bukkit.ChatColor;
+import org.bukkit.command.CommandSender;
+import org.bukkit.entity.Entity;
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs the commands with {@code execution: async} on a bounded pool of worker threads. When all threads are busy and
+ * the queue is full, or the sender already has too many commands in flight, the command is rejected with a message
+ * instead of piling up.
+ */
+public final class AsyncCommandPool {
+    private static final Logger LOGGER = LoggerFactory.getLogger("SpigotCommander");
+    // sender key (see getKey) -> number of commands running or waiting
+    private final Map<Object, Integer> inFlight = new ConcurrentHashMap<>();
+    private ThreadPoolExecutor executor;
+    private int threads;
+    private int queueSize;
+    private volatile int perSenderLimit;
+
+    /**
+     * Applies the configuration. The thread pool is replaced if the number of threads or the queue size changed; the
+     * commands running on the old pool are allowed to finish.
+     * @param threads the number of worker threads
+     * @param queueSize the number of commands that may wait for a thread
+     * @param perSenderLimit the number of commands a sender may have running or waiting, or 0 for no limit
+     */
+    public synchronized void configure(int threads, int queueSize, int perSenderLimit) {
+        this.perSenderLimit = perSenderLimit;
+        threads = Math.max(1, threads);
+        queueSize = Math.max(1, queueSize);
+        if (executor != null && this.threads == threads && this.queueSize == queueSize) return;
+        if (executor != null) executor.shutdown();
+        this.threads = threads;
+        this.queueSize = queueSize;
+        executor = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS, new ArrayBlockingQueue<>(queueSize),
+                new ThreadFactoryBuilder().setNameFormat("SpigotCommander Async Command #%d").setDaemon(true).build());
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Submits the command to the pool.
+     * @param sender the sender, who is notified if the command is rejected
+     * @param task the task running the command
+     * @return true if the command was accepted
+     */
+    public boolean submit(@NotNull CommandSender sender, @NotNull Runnable task) {
+        Object key = getKey(sender);
+        if (!acquire(key)) {
+            sender.sendMessage(ChatColor.RED + "実行中のコマンドが完了するまでお待ちください。");
+            return false;
+        }
+        try {
+            getExecutor().execute(() -> {
+                try {
+                    task.run();
+                } finally {
+                    release(key);
+                }
+            });
+            return true;
+        } catch (RejectedExecutionException e) {
+            release(key);
+            sender.sendMessage(ChatColor.RED + "サーバーが混雑しています。しばらくしてから再度お試しください。");
+            return false;
+        }
+    }
+
+    private synchronized @NotNull ThreadPoolExecutor getExecutor() {
+        if (executor == null) throw new RejectedExecutionException("not configured or already shut down");
+        return executor;
+    }
+
+    /**
+     * Returns the key to count the commands of the sender by. Entities are keyed by their UUID, which stays the same
+     * when a player reconnects; the other senders (console, RCON, command blocks) by the sender itself, as their
+     * names are not unique.
+     */
+    private static @NotNull Object getKey(@NotNull CommandSender sender) {
+        if (sender instanceof Entity) return ((Entity) sender).getUniqueId();
+        return sender;
+    }
+
+    private boolean acquire(@NotNull Object key) {
+        int limit = perSenderLimit;
+        boolean[] acquired = {false};
+        inFlight.compute(key, (k, count) -> {
+            int n = count == null ? 0 : count;
+            if (limit > 0 && n >= limit) return count;
+            acquired[0] = true;
+            return n + 1;
+        });
+        return acquired[0];
+    }
+
+    private void release(@NotNull Object key) {
+        inFlight.computeIfPresent(key, (k, count) -> count <= 1 ? null : count - 1);
+    }
+
+    /**
+     * Stops accepting commands and waits for the running ones to finish, up to the timeout.
+     */
+    public void shutdown(long timeout, @NotNull TimeUnit unit) {
+        ThreadPoolExecutor executor;
+        synchronized (this) {
+            executor = this.executor;
+            this.executor = null;
+        }
+        if (executor == null) return;
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(timeout, unit)) {
+                LOGGER.warn("Async commands did not finish in time, interrupting {} threads", executor.getActiveCount());
+                executor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package net.azisaba.spigotcommander.commands;
+
+import net.azisaba.spigotcommander.SpigotCommander;
+import net.azisaba.spigotcommander.util.ClassUtil;
+import org.bukkit.ChatColor;
+import org.bukkit.command.Command;
+import org.bukkit.command.CommandExecutor;
+import org.bukkit.command.CommandSender;
+import org.bukkit.command.TabCompleter;
+import org.bukkit.command.TabExecutor;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Command executor that loads and constructs the script class the first time the command is run or tab-completed,
+ * on whichever thread that happens. The class is constructed at most once; if it fails, the failure is kept and the
+ * command reports an error until the next reload.
+ */
+public class LazyCommandExecutor implements TabExecutor {
+    private static final Logger LOGGER = LoggerFactory.getLogger("SpigotCommander");
+    private final ClassLoader classLoader;
+    private final String className;
+    private final SpigotCommander plugin;
+    private volatile CommandExecutor executor;
+    private volatile Throwable failure;
+
+    public LazyCommandExecutor(@NotNull ClassLoader classLoader, @NotNull String className, @NotNull SpigotCommander plugin) {
+        this.classLoader = classLoader;
+        this.className = className;
+        this.plugin = plugin;
+    }
+
+    /**
+     * @return the class loader the script class is loaded from
+     */
+    public @NotNull ClassLoader getClassLoader() {
+        return classLoader;
+    }
+
+    public @NotNull String getClassName() {
+        return className;
+    }
+
+    /**
+     * Returns whether the script class has been constructed.
+     */
+    public boolean isLoaded() {
+        return executor != null;
+    }
+
+    /**
+     * Loads and constructs the script class if not done yet.
+     * @return the executor, or null if loading or constructing the class failed
+     */
+    public @Nullable CommandExecutor getExecutor() {
+        CommandExecutor executor = this.executor;
+        if (executor != null || failure != null) return executor;
+        synchronized (this) {
+            if (this.executor == null && failure == null) {
+                long start = System.nanoTime();
+                try {
+                    this.executor = (CommandExecutor) ClassUtil.newInstance(classLoader.loadClass(className), plugin);
+                    LOGGER.info("Loaded {} in {}ms", className, String.format("%.1f", (System.nanoTime() - start) / 1_000_000.0));
+                } catch (Exception | LinkageError e) {
+                    failure = e;
+                    LOGGER.error("Failed to load class {}", className, e);
+                }
+            }
+            return this.executor;
+        }
+    }
+
+    @Override
+    public boolean onCommand(@NotNull CommandSender sender, @NotNull Command command, @NotNull String label, @NotNull String[] args) {
+        CommandExecutor executor = getExecutor();
+        if (executor == null) {
+            sender.sendMessage(ChatColor.RED + "コマンドの読み込みに失敗しました。詳細はコンソールを確認してください。");
+            return true;
+        }
+        return executor.onCommand(sender, command, label, args);
+    }
+
+    @Override
+    public @Nullable List<String> onTabComplete(@NotNull CommandSender sender, @NotNull Command command, @NotNull String alias, @NotNull String[] args) {
+        CommandExecutor executor = getExecutor();
+        if (executor == null) return Collections.emptyList();
+        if (!(executor instanceof TabCompleter)) return null;
+        return ((TabCompleter) executor).onTabComplete(sender, command, alias, args);
+    }
+
+    @Override
+    public String toString() {
+        return "LazyCommandExecutor{" + className + ", " + (executor != null ? executor : failure != null ? "failed" : "not loaded") + "}";
+    }
+}
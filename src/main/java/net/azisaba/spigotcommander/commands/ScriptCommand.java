@@ -0,0 +1,223 @@
+package net.azisaba.spigotcommander.commands;
+
+import com.google.common.cache.Cache;
+import net.azisaba.spigotcommander.metrics.InvocationStats;
+import net.azisaba.spigotcommander.metrics.ScriptMetrics;
+import net.azisaba.spigotcommander.metrics.StallWatchdog;
+import org.bukkit.ChatColor;
+import org.bukkit.command.Command;
+import org.bukkit.command.CommandExecutor;
+import org.bukkit.command.CommandSender;
+import org.bukkit.command.TabCompleter;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Command registered for a script. The instance stays in the command map across reloads as long as its name,
+ * aliases and permission are unchanged; only the executor is replaced.
+ */
+public class ScriptCommand extends Command {
+    private static final Logger LOGGER = LoggerFactory.getLogger("SpigotCommander");
+    private final List<String> configuredAliases;
+    private volatile CommandExecutor executor;
+    private volatile InvocationStats executeStats;
+    private volatile InvocationStats tabCompleteStats;
+    private volatile AsyncCommandPool asyncPool;
+    private volatile boolean asyncTabComplete;
+    private volatile Cache<String, List<String>> tabCompleteCache;
+    private volatile StallWatchdog stallWatchdog;
+    private volatile String executeName;
+    private volatile String tabCompleteName;
+
+    public ScriptCommand(@NotNull String name, @NotNull String description, @NotNull String usage, @NotNull List<String> aliases, @NotNull CommandExecutor executor) {
+        super(name, description, usage, aliases);
+        this.configuredAliases = Collections.unmodifiableList(new ArrayList<>(aliases));
+        setExecutor(executor);
+    }
+
+    /**
+     * @return the aliases this command was created with, including the ones the command map refused to register
+     */
+    public @NotNull List<String> getConfiguredAliases() {
+        return configuredAliases;
+    }
+
+    public @NotNull CommandExecutor getExecutor() {
+        return executor;
+    }
+
+    public void setExecutor(@NotNull CommandExecutor executor) {
+        String className = executor instanceof LazyCommandExecutor ? ((LazyCommandExecutor) executor).getClassName() : executor.getClass().getName();
+        String simpleName = className.substring(className.lastIndexOf('.') + 1);
+        this.executeName = simpleName + "#onCommand (/" + getName() + ")";
+        this.tabCompleteName = simpleName + "#onTabComplete (/" + getName() + ")";
+        this.executor = executor;
+    }
+
+    /**
+     * Sets the metrics to record the invocations of this command to, or null to disable recording.
+     */
+    public void setMetrics(@Nullable ScriptMetrics metrics) {
+        this.executeStats = metrics == null ? null : metrics.command(getName());
+        this.tabCompleteStats = metrics == null ? null : metrics.tabComplete(getName());
+    }
+
+    /**
+     * Sets the pool to run the executor on, or null to run it on the calling (main) thread.
+     */
+    public void setAsyncPool(@Nullable AsyncCommandPool asyncPool) {
+        this.asyncPool = asyncPool;
+    }
+
+    public @Nullable AsyncCommandPool getAsyncPool() {
+        return asyncPool;
+    }
+
+    /**
+     * Sets whether the tab completer may be called off the main thread (on Paper). The tab completer must be
+     * thread-safe.
+     */
+    public void setAsyncTabComplete(boolean asyncTabComplete) {
+        this.asyncTabComplete = asyncTabComplete;
+    }
+
+    public boolean isAsyncTabComplete() {
+        return asyncTabComplete;
+    }
+
+    /**
+     * Sets the cache of the completions, keyed by the arguments, or null to call the tab completer every time.
+     */
+    public void setTabCompleteCache(@Nullable Cache<String, List<String>> tabCompleteCache) {
+        this.tabCompleteCache = tabCompleteCache;
+    }
+
+    /**
+     * Sets the watchdog to mark the calls of the executor and the tab completer on, or null to not mark them.
+     */
+    public void setStallWatchdog(@Nullable StallWatchdog stallWatchdog) {
+        this.stallWatchdog = stallWatchdog;
+    }
+
+    /**
+     * Returns whether the other command would be registered in the same way, that is, whether it can be applied to
+     * this command with {@link #update(ScriptCommand)} without touching the command map.
+     */
+    public boolean hasSameRegistration(@NotNull ScriptCommand other) {
+        return getName().equals(other.getName())
+                && configuredAliases.equals(other.configuredAliases)
+                && Objects.equals(getPermission(), other.getPermission());
+    }
+
+    /**
+     * Copies the executor and the properties that do not affect the registration from the other command.
+     */
+    public void update(@NotNull ScriptCommand other) {
+        setDescription(other.getDescription());
+        setUsage(other.getUsage());
+        setPermissionMessage(other.getPermissionMessage());
+        setExecutor(other.getExecutor());
+        this.executeStats = other.executeStats;
+        this.tabCompleteStats = other.tabCompleteStats;
+        this.asyncPool = other.asyncPool;
+        this.asyncTabComplete = other.asyncTabComplete;
+        this.tabCompleteCache = other.tabCompleteCache;
+        this.stallWatchdog = other.stallWatchdog;
+    }
+
+    @Override
+    public boolean execute(@NotNull CommandSender sender, @NotNull String commandLabel, @NotNull String[] args) {
+        AsyncCommandPool pool = this.asyncPool;
+        if (pool == null) return execute(executor, sender, commandLabel, args);
+        CommandExecutor executor = this.executor;
+        pool.submit(sender, () -> {
+            try {
+                if (!execute(executor, sender, commandLabel, args)) sendUsage(sender, commandLabel);
+            } catch (Throwable t) {
+                LOGGER.error("Unhandled exception executing command '{}' asynchronously", commandLabel, t);
+                sender.sendMessage(ChatColor.RED + "コマンドの実行中に内部エラーが発生しました。");
+            }
+        });
+        return true;
+    }
+
+    // what PluginCommand does when the executor returns false, since the result of the async call does not reach Bukkit
+    private void sendUsage(@NotNull CommandSender sender, @NotNull String commandLabel) {
+        String usage = getUsage();
+        if (usage.isEmpty()) return;
+        for (String line : usage.replace("<command>", commandLabel).split("\n")) {
+            sender.sendMessage(line);
+        }
+    }
+
+    private boolean execute(@NotNull CommandExecutor executor, @NotNull CommandSender sender, @NotNull String commandLabel, @NotNull String[] args) {
+        StallWatchdog watchdog = this.stallWatchdog;
+        boolean watched = watchdog != null && watchdog.enter(executeName);
+        try {
+            InvocationStats stats = this.executeStats;
+            if (stats == null) return executor.onCommand(sender, this, commandLabel, args);
+            long start = System.nanoTime();
+            boolean failed = true;
+            try {
+                boolean result = executor.onCommand(sender, this, commandLabel, args);
+                failed = false;
+                return result;
+            } finally {
+                stats.record(System.nanoTime() - start, failed);
+            }
+        } finally {
+            if (watched) watchdog.exit();
+        }
+    }
+
+    @Override
+    public @NotNull List<String> tabComplete(@NotNull CommandSender sender, @NotNull String alias, @NotNull String[] args) throws IllegalArgumentException {
+        List<String> list = tabCompleteScript(sender, alias, args);
+        if (list != null) return list;
+        return super.tabComplete(sender, alias, args);
+    }
+
+    /**
+     * Returns the completions from the tab completer of the script, using the cache if set.
+     * @return the completions, or null if the executor is not a tab completer or it returned null
+     */
+    public @Nullable List<String> tabCompleteScript(@NotNull CommandSender sender, @NotNull String alias, @NotNull String[] args) {
+        CommandExecutor executor = this.executor;
+        if (!(executor instanceof TabCompleter)) return null;
+        Cache<String, List<String>> cache = this.tabCompleteCache;
+        if (cache == null) return onTabComplete((TabCompleter) executor, sender, alias, args);
+        String key = (args.length - 1) + " " + String.join(" ", args);
+        List<String> cached = cache.getIfPresent(key);
+        if (cached != null) return new ArrayList<>(cached);
+        List<String> list = onTabComplete((TabCompleter) executor, sender, alias, args);
+        if (list != null) cache.put(key, Collections.unmodifiableList(new ArrayList<>(list)));
+        return list;
+    }
+
+    private @Nullable List<String> onTabComplete(@NotNull TabCompleter completer, @NotNull CommandSender sender, @NotNull String alias, @NotNull String[] args) {
+        StallWatchdog watchdog = this.stallWatchdog;
+        boolean watched = watchdog != null && watchdog.enter(tabCompleteName);
+        try {
+            InvocationStats stats = this.tabCompleteStats;
+            if (stats == null) return completer.onTabComplete(sender, this, alias, args);
+            long start = System.nanoTime();
+            boolean failed = true;
+            try {
+                List<String> list = completer.onTabComplete(sender, this, alias, args);
+                failed = false;
+                return list;
+            } finally {
+                stats.record(System.nanoTime() - start, failed);
+            }
+        } finally {
+            if (watched) watchdog.exit();
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package net.azisaba.spigotcommander.commands;
+
+import com.destroystokyo.paper.event.server.AsyncTabCompleteEvent;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.Listener;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Completes the arguments of script commands with {@code tab-complete: async} in Paper's AsyncTabCompleteEvent, so
+ * that their tab completers run off the main thread. Completions the script leaves to the server (null) are
+ * completed on the main thread as usual.
+ */
+public class ScriptTabCompleteListener implements Listener {
+    private volatile Map<String, ScriptCommand> commands = Collections.emptyMap();
+
+    /**
+     * Replaces the commands to complete. Must be called whenever the commands are registered or unregistered.
+     * @param commands map of registered label (including the fallback prefixed ones) to the command
+     */
+    public void setCommands(@NotNull Map<String, ScriptCommand> commands) {
+        Map<String, ScriptCommand> map = new HashMap<>();
+        commands.forEach((label, command) -> {
+            if (command.isAsyncTabComplete()) map.put(label, command);
+        });
+        this.commands = map;
+    }
+
+    @EventHandler(ignoreCancelled = true)
+    public void onAsyncTabComplete(AsyncTabCompleteEvent e) {
+        if (!e.isCommand() || e.isHandled()) return;
+        String buffer = e.getBuffer();
+        if (buffer.startsWith("/")) buffer = buffer.substring(1);
+        int space = buffer.indexOf(' ');
+        // completing the label itself is left to the server
+        if (space == -1) return;
+        String label = buffer.substring(0, space).toLowerCase(Locale.ENGLISH);
+        ScriptCommand command = commands.get(label);
+        if (command == null || !command.testPermissionSilent(e.getSender())) return;
+        String[] args = buffer.substring(space + 1).split(" ", -1);
+        List<String> completions = command.tabCompleteScript(e.getSender(), label, args);
+        if (completions == null) return;
+        e.setCompletions(completions);
+        e.setHandled(true);
+    }
+}
@@ -1,6 +1,15 @@
 package net.azisaba.spigotcommander.commands;
 
 import net.azisaba.spigotcommander.SpigotCommander;
+import net.azisaba.spigotcommander.generation.GenerationTracker;
+import net.azisaba.spigotcommander.generation.ScriptGeneration;
+import net.azisaba.spigotcommander.metrics.InvocationStats;
+import net.azisaba.spigotcommander.metrics.ScriptMetrics;
+import net.azisaba.spigotcommander.metrics.StallWatchdog;
+import net.azisaba.spigotcommander.timings.ReloadTimings;
+import net.azisaba.spigotcommander.timings.ReloadTimingsHistory;
+import net.azisaba.spigotcommander.util.FileUtil;
+import org.bukkit.Bukkit;
 import org.bukkit.ChatColor;
 import org.bukkit.command.Command;
 import org.bukkit.command.CommandSender;
@@ -8,12 +17,22 @@ import org.bukkit.command.TabExecutor;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.Date;
 import java.util.List;
+import java.util.Map;
 import java.util.stream.Collectors;
 
 public class SpigotCommanderCommand implements TabExecutor {
-    private static final List<String> COMMANDS = Collections.singletonList("reload");
+    private static final int STATS_LIMIT = 10;
+    private static final int STALLS_LIMIT = 5;
+    private static final int STACK_LIMIT = 8;
+    private static final List<String> COMMANDS = Arrays.asList("reload", "timings", "stats", "generations", "stalls");
 
     private final SpigotCommander plugin;
 
@@ -29,17 +48,185 @@ public class SpigotCommanderCommand implements TabExecutor {
         }
         if (args[0].equalsIgnoreCase("reload")) {
             sender.sendMessage(ChatColor.GOLD + "ファイルをリロード中です。");
-            long start = System.currentTimeMillis();
-            plugin.reload().thenRun(() -> sender.sendMessage(ChatColor.GREEN + "リロードが完了しました。" + ChatColor.DARK_GRAY + " (" + (System.currentTimeMillis() - start) + "ms)"));
+            // the reload completes on the reload thread
+            plugin.reload().thenAccept(timings -> plugin.runSync(() -> {
+                String time = ChatColor.DARK_GRAY + " (" + formatMillis(timings.getTotalNanos()) + ")";
+                if (timings.isSuccess()) {
+                    sender.sendMessage(ChatColor.GREEN + "リロードが完了しました。" + time);
+                } else {
+                    sender.sendMessage(ChatColor.RED + "リロードに失敗しました。詳細はコンソールを確認してください。" + time);
+                }
+            }));
+        } else if (args[0].equalsIgnoreCase("timings")) {
+            sendTimings(sender);
+        } else if (args[0].equalsIgnoreCase("stats")) {
+            if (args.length >= 2 && args[1].equalsIgnoreCase("reset")) {
+                plugin.getMetrics().reset();
+                sender.sendMessage(ChatColor.GREEN + "統計をリセットしました。");
+            } else if (args.length >= 2 && args[1].equalsIgnoreCase("dump")) {
+                dumpStats(sender, args.length >= 3 && args[2].equalsIgnoreCase("json"));
+            } else {
+                sendStats(sender);
+            }
+        } else if (args[0].equalsIgnoreCase("generations")) {
+            sendGenerations(sender);
+        } else if (args[0].equalsIgnoreCase("stalls")) {
+            if (args.length >= 2 && args[1].equalsIgnoreCase("reset")) {
+                plugin.getStallWatchdog().reset();
+                sender.sendMessage(ChatColor.GREEN + "ストールの記録をリセットしました。");
+            } else {
+                sendStalls(sender);
+            }
         }
         return true;
     }
 
+    private void sendGenerations(@NotNull CommandSender sender) {
+        ScriptGeneration current = plugin.getGeneration();
+        if (current != null) {
+            sender.sendMessage(ChatColor.GOLD + "現在の世代: " + ChatColor.WHITE + "#" + current.getId() + " " + current.getPackageName()
+                    + ChatColor.DARK_GRAY + " (" + new SimpleDateFormat("yyyy-MM-dd HH:mm:ss").format(new Date(current.getCreatedAt())) + ")");
+        }
+        List<GenerationTracker.RetiredGeneration> retired = plugin.getGenerationTracker().getRetired();
+        if (retired.isEmpty()) {
+            sender.sendMessage(ChatColor.GREEN + "アンロードされていない古い世代はありません。");
+            return;
+        }
+        sender.sendMessage(ChatColor.GOLD + "アンロードされていない古い世代: " + retired.size() + "個");
+        for (GenerationTracker.RetiredGeneration generation : retired) {
+            sender.sendMessage((generation.isWarned() ? ChatColor.RED : ChatColor.GRAY) + "  #" + generation.getId() + " " + generation.getPackageName()
+                    + ChatColor.DARK_GRAY + " (" + generation.getRetiredSeconds() + "秒前に無効化)");
+        }
+    }
+
+    private void sendStalls(@NotNull CommandSender sender) {
+        StallWatchdog watchdog = plugin.getStallWatchdog();
+        if (watchdog.getThresholdNanos() <= 0) {
+            sender.sendMessage(ChatColor.RED + "ストールの検出は無効になっています。(stall-watchdog.threshold-ms)");
+            return;
+        }
+        List<StallWatchdog.Stall.Snapshot> stalls = watchdog.snapshot();
+        if (stalls.isEmpty()) {
+            sender.sendMessage(ChatColor.GREEN + formatMillis(watchdog.getThresholdNanos()) + "を超えてメインスレッドを止めたスクリプトはありません。");
+            return;
+        }
+        sender.sendMessage(ChatColor.GOLD + formatMillis(watchdog.getThresholdNanos()) + "を超えたスクリプトの呼び出し (上位" + Math.min(STALLS_LIMIT, stalls.size()) + "件/" + stalls.size() + "件):");
+        for (StallWatchdog.Stall.Snapshot s : stalls.subList(0, Math.min(STALLS_LIMIT, stalls.size()))) {
+            sender.sendMessage(ChatColor.YELLOW + s.getName() + ChatColor.GRAY + ": "
+                    + ChatColor.WHITE + s.getCount() + "回"
+                    + ChatColor.GRAY + ", 合計 " + formatMillis(s.getTotalNanos()) + ", 最大 " + formatMillis(s.getMaxNanos())
+                    + ChatColor.DARK_GRAY + " (最終 " + new SimpleDateFormat("HH:mm:ss").format(new Date(s.getLastAt())) + ")");
+            StackTraceElement[] stack = s.getStack();
+            if (stack == null) continue;
+            sender.sendMessage(ChatColor.GRAY + "  " + formatMillis(s.getStackNanos()) + "経過時点のスタック:");
+            // the frames below the script are the dispatching code of this plugin and the server
+            int end = stack.length;
+            for (int i = 0; i < stack.length; i++) {
+                if (isDispatcherFrame(stack[i])) {
+                    end = i;
+                    break;
+                }
+            }
+            // the top frames show what the script is waiting for, and the bottom ones which part of the script
+            int head = end > STACK_LIMIT ? STACK_LIMIT / 2 : end;
+            for (int i = 0; i < end; i++) {
+                if (i == head) {
+                    sender.sendMessage(ChatColor.DARK_GRAY + "    ... " + (end - STACK_LIMIT) + " more");
+                    i = end - (STACK_LIMIT - head);
+                }
+                sender.sendMessage(ChatColor.GRAY + "    at " + ChatColor.WHITE + stack[i]);
+            }
+        }
+    }
+
+    private static boolean isDispatcherFrame(@NotNull StackTraceElement element) {
+        return element.getClassName().startsWith("net.azisaba.spigotcommander.")
+                && !element.getClassName().startsWith("net.azisaba.spigotcommander.generated$");
+    }
+
+    private void sendStats(@NotNull CommandSender sender) {
+        List<InvocationStats.Snapshot> snapshots = plugin.getMetrics().snapshot();
+        if (snapshots.isEmpty()) {
+            sender.sendMessage(ChatColor.RED + "統計がありません。");
+            return;
+        }
+        sender.sendMessage(ChatColor.GOLD + "合計時間の多い順 (上位" + Math.min(STATS_LIMIT, snapshots.size()) + "件/" + snapshots.size() + "件):");
+        for (InvocationStats.Snapshot s : snapshots.subList(0, Math.min(STATS_LIMIT, snapshots.size()))) {
+            sender.sendMessage(ChatColor.YELLOW + s.getName() + ChatColor.GRAY + ": "
+                    + ChatColor.WHITE + s.getCount() + "回"
+                    + ChatColor.GRAY + String.format(", 合計 %.1fms, 平均 %.3fms, p99 %.3fms, 最大 %.3fms",
+                    ScriptMetrics.toMillis(s.getTotalNanos()),
+                    ScriptMetrics.toMillis(s.getMeanNanos()),
+                    ScriptMetrics.toMillis(s.getPercentileNanos(0.99)),
+                    ScriptMetrics.toMillis(s.getMaxNanos()))
+                    + (s.getErrors() > 0 ? ChatColor.RED + ", エラー " + s.getErrors() + "回" : ""));
+        }
+    }
+
+    private void dumpStats(@NotNull CommandSender sender, boolean json) {
+        String content = json ? plugin.getMetrics().toJson() : plugin.getMetrics().toText();
+        String fileName = "stats-" + new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date()) + (json ? ".json" : ".txt");
+        Path path = plugin.getDataFolder().toPath().resolve("stats").resolve(fileName);
+        Bukkit.getScheduler().runTaskAsynchronously(plugin, () -> {
+            try {
+                Files.createDirectories(path.getParent());
+                FileUtil.writeString(path, content);
+                sender.sendMessage(ChatColor.GREEN + "統計を " + path + " に保存しました。");
+            } catch (IOException e) {
+                plugin.getSLF4JLogger().warn("Failed to write {}", path, e);
+                sender.sendMessage(ChatColor.RED + "統計の保存に失敗しました。");
+            }
+        });
+    }
+
+    private void sendTimings(@NotNull CommandSender sender) {
+        ReloadTimingsHistory history = plugin.getReloadTimings();
+        ReloadTimings last = history.getLast();
+        if (last == null) {
+            sender.sendMessage(ChatColor.RED + "リロードの記録がありません。");
+            return;
+        }
+        sender.sendMessage(ChatColor.GOLD + "最後のリロード: " + ChatColor.WHITE + formatMillis(last.getTotalNanos())
+                + (last.isSuccess() ? "" : ChatColor.RED + " (失敗)")
+                + ChatColor.DARK_GRAY + " " + new SimpleDateFormat("yyyy-MM-dd HH:mm:ss").format(new Date(last.getStartedAt())));
+        last.getPhases().forEach((phase, nanos) ->
+                sender.sendMessage(ChatColor.GRAY + "  " + phase + ": " + ChatColor.WHITE + formatMillis(nanos)));
+        Map<String, Long> files = last.getFiles();
+        if (!files.isEmpty()) {
+            sender.sendMessage(ChatColor.GRAY + "  遅いファイル:");
+            files.entrySet()
+                    .stream()
+                    .sorted(Map.Entry.<String, Long>comparingByValue().reversed())
+                    .limit(5)
+                    .forEach(entry -> sender.sendMessage(ChatColor.GRAY + "    " + entry.getKey() + ": " + ChatColor.WHITE + formatMillis(entry.getValue())));
+        }
+        sender.sendMessage(ChatColor.GOLD + "直近" + history.getHistory().size() + "回: " + ChatColor.WHITE
+                + String.format("平均 %.1fms / 最大 %.1fms", history.getAverageReloadMillis(), history.getMaxReloadMillis())
+                + ChatColor.DARK_GRAY + " (合計 " + history.getReloadCount() + "回, 失敗 " + history.getFailedReloadCount() + "回)");
+    }
+
+    private static @NotNull String formatMillis(long nanos) {
+        return String.format("%.1fms", ReloadTimingsHistory.toMillis(nanos));
+    }
+
     @Override
     public @Nullable List<String> onTabComplete(@NotNull CommandSender sender, @NotNull Command command, @NotNull String alias, @NotNull String[] args) {
         if (args.length == 1) {
-            return COMMANDS.stream().filter(s -> s.toLowerCase().startsWith(args[0].toLowerCase())).collect(Collectors.toList());
+            return filter(COMMANDS, args[0]);
+        }
+        if (args.length == 2 && args[0].equalsIgnoreCase("stats")) {
+            return filter(Arrays.asList("reset", "dump"), args[1]);
+        }
+        if (args.length == 2 && args[0].equalsIgnoreCase("stalls")) {
+            return filter(Collections.singletonList("reset"), args[1]);
+        }
+        if (args.length == 3 && args[0].equalsIgnoreCase("stats") && args[1].equalsIgnoreCase("dump")) {
+            return filter(Arrays.asList("text", "json"), args[2]);
         }
         return Collections.emptyList();
     }
+
+    private static @NotNull List<String> filter(@NotNull List<String> list, @NotNull String prefix) {
+        return list.stream().filter(s -> s.toLowerCase().startsWith(prefix.toLowerCase())).collect(Collectors.toList());
+    }
 }
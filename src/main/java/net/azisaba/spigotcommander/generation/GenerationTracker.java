@@ -0,0 +1,198 @@
+package net.azisaba.spigotcommander.generation;
+
+import net.azisaba.spigotcommander.commands.LazyCommandExecutor;
+import net.azisaba.spigotcommander.commands.ScriptCommand;
+import org.bukkit.Bukkit;
+import org.bukkit.command.Command;
+import org.bukkit.command.PluginCommand;
+import org.bukkit.event.HandlerList;
+import org.bukkit.plugin.RegisteredListener;
+import org.bukkit.plugin.RegisteredServiceProvider;
+import org.bukkit.scheduler.BukkitTask;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tracks the class loaders of retired generations with weak references and reports the ones that are not unloaded
+ * in time, along with the references to them that can be found in the server (listeners, commands, services,
+ * scheduled tasks and threads). References from other places, like static fields of other plugins, cannot be found.
+ */
+public final class GenerationTracker {
+    private static final Logger LOGGER = LoggerFactory.getLogger("SpigotCommander");
+    private final ReferenceQueue<ClassLoader> queue = new ReferenceQueue<>();
+    private final Set<RetiredGeneration> retired = ConcurrentHashMap.newKeySet();
+    private volatile long leakWarningMillis;
+
+    /**
+     * @param leakWarningMillis time after which a retired generation that is still loaded is reported, or 0 to never
+     *                          report
+     */
+    public GenerationTracker(long leakWarningMillis) {
+        this.leakWarningMillis = leakWarningMillis;
+    }
+
+    public void setLeakWarningMillis(long leakWarningMillis) {
+        this.leakWarningMillis = leakWarningMillis;
+    }
+
+    /**
+     * Starts tracking the class loader of the generation. Call it after retiring the generation.
+     */
+    public void track(@NotNull ScriptGeneration generation) {
+        retired.add(new RetiredGeneration(generation, queue));
+    }
+
+    /**
+     * Removes the unloaded generations and reports the ones exceeding the leak warning time. Must be called on the
+     * main thread, since it reads the handler lists and the command map to find the references.
+     */
+    public void check() {
+        Reference<? extends ClassLoader> ref;
+        while ((ref = queue.poll()) != null) {
+            RetiredGeneration generation = (RetiredGeneration) ref;
+            if (retired.remove(generation)) {
+                LOGGER.debug("Generation #{} was unloaded {}s after retirement", generation.id, generation.getRetiredSeconds());
+            }
+        }
+        long leakWarningMillis = this.leakWarningMillis;
+        if (leakWarningMillis <= 0) return;
+        for (RetiredGeneration generation : retired) {
+            if (generation.warned || System.currentTimeMillis() - generation.retiredAt < leakWarningMillis) continue;
+            ClassLoader classLoader = generation.get();
+            if (classLoader == null) continue;
+            generation.warned = true;
+            List<String> retainers = findRetainers(classLoader);
+            if (retainers.isEmpty()) {
+                LOGGER.warn("Generation #{} ({}) is still loaded {}s after reload. It may be retained by something that cannot be inspected, like a static field or a thread local of another plugin.",
+                        generation.id, generation.packageName, generation.getRetiredSeconds());
+            } else {
+                LOGGER.warn("Generation #{} ({}) is still loaded {}s after reload. It is referenced from:\n  {}",
+                        generation.id, generation.packageName, generation.getRetiredSeconds(), String.join("\n  ", retainers));
+            }
+        }
+    }
+
+    /**
+     * Returns the retired generations that have not been unloaded yet, oldest first.
+     */
+    public @NotNull List<RetiredGeneration> getRetired() {
+        List<RetiredGeneration> list = new ArrayList<>();
+        for (RetiredGeneration generation : retired) {
+            if (generation.get() != null) list.add(generation);
+        }
+        list.sort(Comparator.comparingLong(g -> g.id));
+        return list;
+    }
+
+    /**
+     * Finds the known places that reference an object loaded by the class loader.
+     */
+    public static @NotNull List<String> findRetainers(@NotNull ClassLoader classLoader) {
+        List<String> retainers = new ArrayList<>();
+        for (HandlerList handlerList : HandlerList.getHandlerLists()) {
+            for (RegisteredListener listener : handlerList.getRegisteredListeners()) {
+                if (isLoadedBy(listener.getListener(), classLoader)) {
+                    retainers.add("listener " + listener.getListener().getClass().getName() + " (registered by " + listener.getPlugin().getName() + ")");
+                }
+            }
+        }
+        for (Map.Entry<String, Command> entry : Bukkit.getCommandMap().getKnownCommands().entrySet()) {
+            Command command = entry.getValue();
+            Object executor = null;
+            if (command instanceof ScriptCommand) executor = ((ScriptCommand) command).getExecutor();
+            if (command instanceof PluginCommand) executor = ((PluginCommand) command).getExecutor();
+            // a lazy executor holds the class loader even before loading the script class
+            boolean lazy = executor instanceof LazyCommandExecutor && ((LazyCommandExecutor) executor).getClassLoader() == classLoader;
+            if (lazy || isLoadedBy(command, classLoader) || isLoadedBy(executor, classLoader)) {
+                retainers.add("command /" + entry.getKey() + " (" + command.getClass().getName() + ")");
+            }
+        }
+        for (Class<?> service : Bukkit.getServicesManager().getKnownServices()) {
+            for (RegisteredServiceProvider<?> provider : Bukkit.getServicesManager().getRegistrations(service)) {
+                if (isLoadedBy(provider.getProvider(), classLoader)) {
+                    retainers.add("service provider " + provider.getProvider().getClass().getName() + " for " + service.getName());
+                }
+            }
+        }
+        for (BukkitTask task : Bukkit.getScheduler().getPendingTasks()) {
+            Class<?> taskClass = getTaskClass(task);
+            if (taskClass != null && taskClass.getClassLoader() == classLoader) {
+                retainers.add("scheduled task #" + task.getTaskId() + " (" + taskClass.getName() + ")");
+            }
+        }
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (isLoadedBy(thread, classLoader)) {
+                retainers.add("thread " + thread.getName() + " (" + thread.getClass().getName() + ")");
+            } else if (thread.getContextClassLoader() == classLoader) {
+                retainers.add("context class loader of thread " + thread.getName());
+            }
+        }
+        Collections.sort(retainers);
+        return retainers;
+    }
+
+    private static boolean isLoadedBy(@Nullable Object o, @NotNull ClassLoader classLoader) {
+        return o != null && o.getClass().getClassLoader() == classLoader;
+    }
+
+    /**
+     * Returns the class of the runnable of the task. The API does not expose it, but CraftTask has a getTaskClass
+     * method (used by timings).
+     */
+    private static @Nullable Class<?> getTaskClass(@NotNull BukkitTask task) {
+        try {
+            Method method = task.getClass().getMethod("getTaskClass");
+            method.setAccessible(true);
+            return (Class<?>) method.invoke(task);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    public static final class RetiredGeneration extends WeakReference<ClassLoader> {
+        private final long id;
+        private final String packageName;
+        private final long retiredAt = System.currentTimeMillis();
+        private volatile boolean warned;
+
+        private RetiredGeneration(@NotNull ScriptGeneration generation, @NotNull ReferenceQueue<ClassLoader> queue) {
+            super(generation.getClassLoader(), queue);
+            this.id = generation.getId();
+            this.packageName = generation.getPackageName();
+        }
+
+        public long getId() {
+            return id;
+        }
+
+        public @NotNull String getPackageName() {
+            return packageName;
+        }
+
+        public long getRetiredSeconds() {
+            return TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis() - retiredAt);
+        }
+
+        /**
+         * Returns whether the generation has been reported as a possible leak.
+         */
+        public boolean isWarned() {
+            return warned;
+        }
+    }
+}
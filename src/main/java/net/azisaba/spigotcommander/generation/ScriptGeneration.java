@@ -0,0 +1,136 @@
+package net.azisaba.spigotcommander.generation;
+
+import net.azisaba.spigotcommander.commands.ScriptCommand;
+import net.azisaba.spigotcommander.metrics.ScriptMetrics;
+import net.azisaba.spigotcommander.tasks.ScriptTask;
+import net.azisaba.spigotcommander.util.FileUtil;
+import net.azisaba.spigotcommander.util.ScriptClassLoader;
+import org.bukkit.event.Listener;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The scripts loaded by a single reload. A generation owns its class loader, the files created for it and the
+ * listeners, commands and tasks constructed from it, and releases all of them when it is retired.
+ */
+public final class ScriptGeneration {
+    private static final Logger LOGGER = LoggerFactory.getLogger("SpigotCommander");
+    private final long id;
+    private final String packageName;
+    private final ScriptClassLoader classLoader;
+    private final List<Path> artifacts;
+    private final ScriptMetrics metrics;
+    private final List<Listener> listeners = new ArrayList<>();
+    private final Map<String, ScriptCommand> commands = new LinkedHashMap<>();
+    private final List<ScriptTask> tasks = new ArrayList<>();
+    private final long createdAt = System.currentTimeMillis();
+    private volatile boolean retired;
+
+    /**
+     * @param id the sequence number of the generation
+     * @param packageName the package the scripts were compiled into
+     * @param classLoader the class loader of the scripts
+     * @param artifacts files and directories to delete when the generation is retired
+     * @param metrics the metrics to record the invocations to, or null if disabled
+     */
+    public ScriptGeneration(long id, @NotNull String packageName, @NotNull ScriptClassLoader classLoader, @NotNull List<Path> artifacts, @Nullable ScriptMetrics metrics) {
+        this.id = id;
+        this.packageName = packageName;
+        this.classLoader = classLoader;
+        this.artifacts = new ArrayList<>(artifacts);
+        this.metrics = metrics;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public @NotNull String getPackageName() {
+        return packageName;
+    }
+
+    public @NotNull ScriptClassLoader getClassLoader() {
+        return classLoader;
+    }
+
+    public @Nullable ScriptMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Returns the time when the generation was created, in epoch milliseconds.
+     */
+    public long getCreatedAt() {
+        return createdAt;
+    }
+
+    /**
+     * Returns the listeners constructed from this generation. Modifiable until the generation is activated.
+     */
+    public @NotNull List<Listener> getListeners() {
+        return listeners;
+    }
+
+    /**
+     * Returns the commands constructed from this generation, by name. Modifiable until the generation is activated.
+     */
+    public @NotNull Map<String, ScriptCommand> getCommands() {
+        return commands;
+    }
+
+    /**
+     * Returns the tasks constructed from this generation. Modifiable until the generation is activated.
+     */
+    public @NotNull List<ScriptTask> getTasks() {
+        return tasks;
+    }
+
+    public @NotNull List<Path> getArtifacts() {
+        return Collections.unmodifiableList(artifacts);
+    }
+
+    public boolean isRetired() {
+        return retired;
+    }
+
+    /**
+     * Drops the references to the scripts, closes the class loader and deletes the artifacts. The listeners, commands
+     * and tasks must have been unregistered (or taken over by the next generation) before calling this. Does nothing if
+     * already retired.
+     */
+    public synchronized void retire() {
+        if (retired) return;
+        retired = true;
+        listeners.clear();
+        commands.clear();
+        tasks.clear();
+        try {
+            classLoader.close();
+        } catch (IOException e) {
+            LOGGER.warn("Failed to close class loader of generation #{}", id, e);
+        }
+        for (Path artifact : artifacts) {
+            try {
+                FileUtil.deleteRecursively(artifact);
+            } catch (IOException e) {
+                LOGGER.warn("Failed to delete {}", artifact, e);
+            }
+        }
+        artifacts.clear();
+    }
+
+    @Override
+    public String toString() {
+        return "ScriptGeneration{id=" + id + ", packageName=" + packageName + ", retired=" + retired + "}";
+    }
+}
@@ -0,0 +1,138 @@
+package net.azisaba.spigotcommander.metrics;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Invocation count, error count and latency histogram of a single command, tab completer or event handler. Recording
+ * only touches striped adders, so it is cheap and does not block even when called from many threads.
+ * <p>
+ * The histogram uses power of two buckets: bucket {@code i} counts the invocations that took less than
+ * {@code 2^i} nanoseconds (and at least {@code 2^(i-1)}), so percentiles are accurate to a factor of two.
+ */
+public final class InvocationStats {
+    static final int BUCKETS = 40; // up to 2^39 ns (about 9 minutes)
+    private final String name;
+    private final LongAdder count = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private final LongAdder totalNanos = new LongAdder();
+    private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+    private final LongAdder[] buckets = new LongAdder[BUCKETS];
+
+    public InvocationStats(@NotNull String name) {
+        this.name = name;
+        for (int i = 0; i < BUCKETS; i++) {
+            buckets[i] = new LongAdder();
+        }
+    }
+
+    public @NotNull String getName() {
+        return name;
+    }
+
+    /**
+     * Records an invocation.
+     * @param nanos the time the invocation took
+     * @param failed whether the invocation threw an exception
+     */
+    public void record(long nanos, boolean failed) {
+        if (nanos < 0) nanos = 0;
+        count.increment();
+        if (failed) errors.increment();
+        totalNanos.add(nanos);
+        maxNanos.accumulate(nanos);
+        buckets[Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(nanos))].increment();
+    }
+
+    public void reset() {
+        count.reset();
+        errors.reset();
+        totalNanos.reset();
+        maxNanos.reset();
+        for (LongAdder bucket : buckets) {
+            bucket.reset();
+        }
+    }
+
+    /**
+     * Returns a consistent-enough copy of the current values. Invocations recorded concurrently may be partially
+     * included.
+     */
+    public @NotNull Snapshot snapshot() {
+        long[] counts = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = buckets[i].sum();
+        }
+        return new Snapshot(name, count.sum(), errors.sum(), totalNanos.sum(), maxNanos.get(), counts);
+    }
+
+    public static final class Snapshot {
+        private final String name;
+        private final long count;
+        private final long errors;
+        private final long totalNanos;
+        private final long maxNanos;
+        private final long[] buckets;
+
+        private Snapshot(@NotNull String name, long count, long errors, long totalNanos, long maxNanos, long @NotNull [] buckets) {
+            this.name = name;
+            this.count = count;
+            this.errors = errors;
+            this.totalNanos = totalNanos;
+            this.maxNanos = maxNanos;
+            this.buckets = buckets;
+        }
+
+        public @NotNull String getName() {
+            return name;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getErrors() {
+            return errors;
+        }
+
+        public long getTotalNanos() {
+            return totalNanos;
+        }
+
+        public long getMaxNanos() {
+            return maxNanos;
+        }
+
+        public long getMeanNanos() {
+            return count == 0 ? 0 : totalNanos / count;
+        }
+
+        /**
+         * Returns the upper bound of the bucket containing the percentile, capped at the maximum.
+         * @param percentile the percentile, between 0 and 1
+         */
+        public long getPercentileNanos(double percentile) {
+            long total = 0;
+            for (long bucket : buckets) total += bucket;
+            if (total == 0) return 0;
+            long threshold = (long) Math.ceil(total * percentile);
+            long cumulative = 0;
+            for (int i = 0; i < buckets.length; i++) {
+                cumulative += buckets[i];
+                if (cumulative >= threshold && cumulative > 0) {
+                    return Math.min(i == 0 ? 0 : 1L << i, maxNanos);
+                }
+            }
+            return maxNanos;
+        }
+
+        /**
+         * Returns the number of invocations in each bucket, see {@link InvocationStats}.
+         */
+        public long @NotNull [] getBuckets() {
+            return buckets.clone();
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package net.azisaba.spigotcommander.metrics;
+
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Registry of the invocation stats of scripts. Stats are keyed by name (for example {@code command:ping}), so they are
+ * kept across reloads.
+ */
+public final class ScriptMetrics {
+    private final Map<String, InvocationStats> stats = new ConcurrentHashMap<>();
+
+    public @NotNull InvocationStats get(@NotNull String name) {
+        return stats.computeIfAbsent(name, InvocationStats::new);
+    }
+
+    public @NotNull InvocationStats command(@NotNull String commandName) {
+        return get("command:" + commandName);
+    }
+
+    public @NotNull InvocationStats tabComplete(@NotNull String commandName) {
+        return get("tab-complete:" + commandName);
+    }
+
+    public @NotNull InvocationStats listener(@NotNull String handlerName) {
+        return get("listener:" + handlerName);
+    }
+
+    public @NotNull InvocationStats task(@NotNull String taskName) {
+        return get("task:" + taskName);
+    }
+
+    public void reset() {
+        stats.values().forEach(InvocationStats::reset);
+    }
+
+    /**
+     * Returns the snapshots of all stats that were invoked at least once, sorted by total time (descending).
+     */
+    public @NotNull List<InvocationStats.Snapshot> snapshot() {
+        List<InvocationStats.Snapshot> list = new ArrayList<>();
+        for (InvocationStats s : stats.values()) {
+            InvocationStats.Snapshot snapshot = s.snapshot();
+            if (snapshot.getCount() > 0) list.add(snapshot);
+        }
+        list.sort(Comparator.comparingLong(InvocationStats.Snapshot::getTotalNanos).reversed());
+        return list;
+    }
+
+    public @NotNull String toText() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("%-48s %10s %8s %12s %10s %10s %10s %10s%n", "name", "count", "errors", "total(ms)", "mean(ms)", "p50(ms)", "p99(ms)", "max(ms)"));
+        for (InvocationStats.Snapshot s : snapshot()) {
+            sb.append(String.format("%-48s %10d %8d %12.3f %10.3f %10.3f %10.3f %10.3f%n",
+                    s.getName(),
+                    s.getCount(),
+                    s.getErrors(),
+                    toMillis(s.getTotalNanos()),
+                    toMillis(s.getMeanNanos()),
+                    toMillis(s.getPercentileNanos(0.5)),
+                    toMillis(s.getPercentileNanos(0.99)),
+                    toMillis(s.getMaxNanos())));
+        }
+        return sb.toString();
+    }
+
+    public @NotNull String toJson() {
+        JsonArray array = new JsonArray();
+        for (InvocationStats.Snapshot s : snapshot()) {
+            JsonObject obj = new JsonObject();
+            obj.addProperty("name", s.getName());
+            obj.addProperty("count", s.getCount());
+            obj.addProperty("errors", s.getErrors());
+            obj.addProperty("totalNanos", s.getTotalNanos());
+            obj.addProperty("meanNanos", s.getMeanNanos());
+            obj.addProperty("p50Nanos", s.getPercentileNanos(0.5));
+            obj.addProperty("p90Nanos", s.getPercentileNanos(0.9));
+            obj.addProperty("p99Nanos", s.getPercentileNanos(0.99));
+            obj.addProperty("maxNanos", s.getMaxNanos());
+            // bucket i counts the invocations that took less than 2^i ns
+            JsonArray buckets = new JsonArray();
+            for (long bucket : s.getBuckets()) {
+                buckets.add(bucket);
+            }
+            obj.add("buckets", buckets);
+            array.add(obj);
+        }
+        JsonObject root = new JsonObject();
+        root.addProperty("timestamp", System.currentTimeMillis());
+        root.add("stats", array);
+        return new GsonBuilder().setPrettyPrinting().create().toJson(root);
+    }
+
+    public static double toMillis(long nanos) {
+        return nanos / 1_000_000.0;
+    }
+}
@@ -0,0 +1,229 @@
+package net.azisaba.spigotcommander.metrics;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Finds the scripts blocking the main thread. Script calls dispatched by SpigotCommander on the main thread are marked
+ * with {@link #enter(String)} and {@link #exit()}, and a background thread captures the stack of the main thread while
+ * a call takes longer than the threshold. Stalls are aggregated by the name of the call, keeping the stack captured
+ * deepest into the longest stall.
+ * <p>
+ * Marking a call only writes a few fields, and the main thread is only sampled (which needs a safepoint) while it is
+ * already stalled.
+ */
+public final class StallWatchdog {
+    private static final Logger LOGGER = LoggerFactory.getLogger("SpigotCommander");
+    private final Thread mainThread;
+    private final Map<String, Stall> stalls = new ConcurrentHashMap<>();
+    private volatile long thresholdNanos;
+    // odd while a call is running; incremented on both enter and exit
+    private volatile long call;
+    private volatile String current;
+    private volatile long enteredAt;
+    // accessed on the main thread only
+    private int depth;
+    private Thread sampler;
+
+    /**
+     * @param mainThread the server thread
+     */
+    public StallWatchdog(@NotNull Thread mainThread) {
+        this.mainThread = mainThread;
+    }
+
+    /**
+     * Sets the threshold and starts or stops the sampler thread accordingly.
+     * @param thresholdNanos the time after which a call is recorded as a stall, or 0 to disable the watchdog
+     */
+    public synchronized void configure(long thresholdNanos) {
+        this.thresholdNanos = Math.max(0, thresholdNanos);
+        if (thresholdNanos > 0 && sampler == null) {
+            sampler = new Thread(this::sample, "SpigotCommander Stall Watchdog");
+            sampler.setDaemon(true);
+            sampler.start();
+        } else if (thresholdNanos <= 0 && sampler != null) {
+            sampler.interrupt();
+            sampler = null;
+        }
+    }
+
+    public long getThresholdNanos() {
+        return thresholdNanos;
+    }
+
+    /**
+     * Marks the start of a script call. Calls made off the main thread, calls nested in another call, and all calls
+     * while the watchdog is disabled are not tracked.
+     * @param name the name to aggregate the stalls of the call by
+     * @return true if the call is tracked, in which case {@link #exit()} must be called when it returns
+     */
+    public boolean enter(@NotNull String name) {
+        if (thresholdNanos == 0 || Thread.currentThread() != mainThread) return false;
+        if (depth++ > 0) return false;
+        current = name;
+        enteredAt = System.nanoTime();
+        call++;
+        return true;
+    }
+
+    /**
+     * Marks the end of the tracked call, and records it if it took longer than the threshold.
+     */
+    public void exit() {
+        long nanos = System.nanoTime() - enteredAt;
+        String name = current;
+        call++;
+        current = null;
+        depth = 0;
+        long threshold = thresholdNanos;
+        if (threshold > 0 && nanos >= threshold) {
+            stalls.computeIfAbsent(name, Stall::new).record(nanos);
+        }
+    }
+
+    private void sample() {
+        while (!Thread.currentThread().isInterrupted()) {
+            long threshold = thresholdNanos;
+            if (threshold <= 0) return;
+            try {
+                // sample a few times per threshold, so that the captured stack is close to where the time is spent
+                TimeUnit.NANOSECONDS.sleep(Math.max(TimeUnit.MILLISECONDS.toNanos(1), threshold / 4));
+            } catch (InterruptedException e) {
+                return;
+            }
+            long c = call;
+            if ((c & 1) == 0) continue;
+            String name = current;
+            long nanos = System.nanoTime() - enteredAt;
+            if (name == null || c != call || nanos < threshold) continue;
+            StackTraceElement[] stack = mainThread.getStackTrace();
+            // the call returned while capturing, so the stack may not belong to it
+            if (c != call) continue;
+            stalls.computeIfAbsent(name, Stall::new).offerStack(stack, nanos);
+        }
+        LOGGER.debug("Stall watchdog stopped");
+    }
+
+    /**
+     * Returns the snapshots of the recorded stalls, sorted by total time (descending).
+     */
+    public @NotNull List<Stall.Snapshot> snapshot() {
+        List<Stall.Snapshot> list = new ArrayList<>();
+        for (Stall stall : stalls.values()) {
+            Stall.Snapshot snapshot = stall.snapshot();
+            if (snapshot.getCount() > 0) list.add(snapshot);
+        }
+        list.sort(Comparator.comparingLong(Stall.Snapshot::getTotalNanos).reversed());
+        return list;
+    }
+
+    public void reset() {
+        stalls.clear();
+    }
+
+    public void shutdown() {
+        configure(0);
+    }
+
+    /**
+     * The stalls of a single script call site.
+     */
+    public static final class Stall {
+        private final String name;
+        private long count;
+        private long totalNanos;
+        private long maxNanos;
+        private long lastAt;
+        private StackTraceElement[] stack;
+        private long stackNanos;
+
+        private Stall(@NotNull String name) {
+            this.name = name;
+        }
+
+        private synchronized void record(long nanos) {
+            count++;
+            totalNanos += nanos;
+            maxNanos = Math.max(maxNanos, nanos);
+            lastAt = System.currentTimeMillis();
+        }
+
+        private synchronized void offerStack(@NotNull StackTraceElement @NotNull [] stack, long nanos) {
+            if (this.stack != null && nanos <= stackNanos) return;
+            this.stack = stack;
+            this.stackNanos = nanos;
+        }
+
+        private synchronized @NotNull Snapshot snapshot() {
+            return new Snapshot(name, count, totalNanos, maxNanos, lastAt, stack, stackNanos);
+        }
+
+        public static final class Snapshot {
+            private final String name;
+            private final long count;
+            private final long totalNanos;
+            private final long maxNanos;
+            private final long lastAt;
+            private final StackTraceElement[] stack;
+            private final long stackNanos;
+
+            private Snapshot(@NotNull String name, long count, long totalNanos, long maxNanos, long lastAt, StackTraceElement @Nullable [] stack, long stackNanos) {
+                this.name = name;
+                this.count = count;
+                this.totalNanos = totalNanos;
+                this.maxNanos = maxNanos;
+                this.lastAt = lastAt;
+                this.stack = stack;
+                this.stackNanos = stackNanos;
+            }
+
+            public @NotNull String getName() {
+                return name;
+            }
+
+            public long getCount() {
+                return count;
+            }
+
+            public long getTotalNanos() {
+                return totalNanos;
+            }
+
+            public long getMaxNanos() {
+                return maxNanos;
+            }
+
+            /**
+             * Returns the time of the last stall, in epoch milliseconds.
+             */
+            public long getLastAt() {
+                return lastAt;
+            }
+
+            /**
+             * Returns the stack of the main thread captured deepest into a stall (top frame first), or null if the
+             * stalls were too short to be sampled.
+             */
+            public StackTraceElement @Nullable [] getStack() {
+                return stack == null ? null : stack.clone();
+            }
+
+            /**
+             * Returns how long the call had been running when {@link #getStack()} was captured.
+             */
+            public long getStackNanos() {
+                return stackNanos;
+            }
+        }
+    }
+}
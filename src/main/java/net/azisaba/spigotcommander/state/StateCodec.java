@@ -0,0 +1,41 @@
+package net.azisaba.spigotcommander.state;
+
+import com.google.gson.Gson;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Converts a value to bytes and back, so that a value of a script class can be kept in the {@link StateStore}
+ * without keeping the class (and its class loader) alive. The next generation decodes the bytes with its own class.
+ * @param <T> the type of the value
+ */
+public interface StateCodec<T> {
+    byte @NotNull [] encode(@NotNull T value) throws IOException;
+
+    @NotNull T decode(byte @NotNull [] bytes) throws IOException;
+
+    /**
+     * Returns a codec that stores the value as JSON using Gson.
+     * @param type the type of the value, e.g. {@code new TypeToken<Map<String, Integer>>(){}.getType()} for a generic
+     *             type
+     */
+    static <T> @NotNull StateCodec<T> json(@NotNull Type type) {
+        Gson gson = new Gson();
+        return new StateCodec<T>() {
+            @Override
+            public byte @NotNull [] encode(@NotNull T value) {
+                return gson.toJson(value, type).getBytes(StandardCharsets.UTF_8);
+            }
+
+            @Override
+            public @NotNull T decode(byte @NotNull [] bytes) throws IOException {
+                T value = gson.fromJson(new String(bytes, StandardCharsets.UTF_8), type);
+                if (value == null) throw new IOException("Decoded to null");
+                return value;
+            }
+        };
+    }
+}
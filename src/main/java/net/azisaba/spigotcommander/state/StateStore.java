@@ -0,0 +1,314 @@
+package net.azisaba.spigotcommander.state;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Key/value store owned by the plugin, which survives reloads. Scripts can use it to hand their state (e.g. caches)
+ * to their next version, via {@code plugin.getStateStore()}.
+ * <p>
+ * Only values of classes from the JDK that cannot reference script classes are accepted: strings, boxed primitives
+ * and byte arrays. Other values must be converted with a {@link StateCodec}, so the store never keeps a script class
+ * loader alive. Byte arrays are stored as is and must not be modified after being put.
+ * <p>
+ * If a maximum size is set, the least recently used entries are evicted once the estimated size of all entries
+ * exceeds it. The store can be saved to and loaded from a file, so that it also survives restarts. Thread-safe.
+ */
+public class StateStore {
+    private static final Logger LOGGER = LoggerFactory.getLogger("SpigotCommander");
+    private static final int FORMAT_VERSION = 1;
+    // every access takes the read lock, so that the cache is not replaced (by setMaxBytes) while it is being used.
+    // nothing slow runs while it is held, so setMaxBytes never waits long for the write lock
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private Cache<String, Object> cache = newCache(0);
+    private volatile long maxBytes;
+
+    /**
+     * Sets the maximum estimated size of the entries in bytes (0 for no limit). Entries are evicted if the store is
+     * larger than the new size. Blocks the other accesses while the entries are copied.
+     */
+    public void setMaxBytes(long maxBytes) {
+        // called on every reload, usually with the same size
+        if (this.maxBytes == maxBytes) return;
+        lock.writeLock().lock();
+        try {
+            if (this.maxBytes == maxBytes) return;
+            this.maxBytes = maxBytes;
+            Cache<String, Object> newCache = newCache(maxBytes);
+            newCache.putAll(cache.asMap());
+            cache = newCache;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private <R> R withCache(@NotNull Function<Cache<String, Object>, R> action) {
+        lock.readLock().lock();
+        try {
+            return action.apply(cache);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private static @NotNull Cache<String, Object> newCache(long maxBytes) {
+        if (maxBytes <= 0) return CacheBuilder.newBuilder().build();
+        return CacheBuilder.newBuilder()
+                .maximumWeight(maxBytes)
+                .weigher((String key, Object value) -> estimateSize(key) + estimateSize(value))
+                .build();
+    }
+
+    /**
+     * Stores the value.
+     * @param value a string, a boxed primitive or a byte array
+     * @throws IllegalArgumentException if the value is of another type
+     */
+    public void put(@NotNull String key, @NotNull Object value) {
+        Object checked = checkValue(value);
+        withCache(cache -> {
+            cache.put(key, checked);
+            return null;
+        });
+    }
+
+    /**
+     * Encodes the value with the codec and stores it as a byte array.
+     */
+    public <T> void put(@NotNull String key, @NotNull T value, @NotNull StateCodec<T> codec) throws IOException {
+        byte[] encoded = codec.encode(value);
+        withCache(cache -> {
+            cache.put(key, encoded);
+            return null;
+        });
+    }
+
+    public @Nullable Object get(@NotNull String key) {
+        return withCache(cache -> cache.getIfPresent(key));
+    }
+
+    /**
+     * @return the value, or null if there is no value or it is not of the type
+     */
+    public <T> @Nullable T get(@NotNull String key, @NotNull Class<T> type) {
+        Object value = get(key);
+        return type.isInstance(value) ? type.cast(value) : null;
+    }
+
+    /**
+     * Decodes the byte array stored with the key.
+     * @return the value, or null if there is no value, it is not a byte array or the codec failed to decode it
+     */
+    public <T> @Nullable T get(@NotNull String key, @NotNull StateCodec<T> codec) {
+        Object value = get(key);
+        if (!(value instanceof byte[])) return null;
+        try {
+            return codec.decode((byte[]) value);
+        } catch (IOException | RuntimeException e) {
+            LOGGER.warn("Failed to decode state {}", key, e);
+            return null;
+        }
+    }
+
+    /**
+     * Returns the value, computing and storing it first if there is no value. The supplier runs without holding any
+     * lock, so it may be slow (e.g. load the value from a database), but concurrent calls with the same key may all
+     * compute the value; the first one stored is returned by all of them.
+     */
+    public @NotNull Object computeIfAbsent(@NotNull String key, @NotNull Supplier<?> supplier) {
+        Object value = get(key);
+        if (value != null) return value;
+        Object computed = checkValue(supplier.get());
+        return withCache(cache -> {
+            Object previous = cache.asMap().putIfAbsent(key, computed);
+            return previous != null ? previous : computed;
+        });
+    }
+
+    public void remove(@NotNull String key) {
+        withCache(cache -> {
+            cache.invalidate(key);
+            return null;
+        });
+    }
+
+    /**
+     * Removes all entries whose key starts with the prefix.
+     */
+    public void removeAll(@NotNull String prefix) {
+        withCache(cache -> cache.asMap().keySet().removeIf(key -> key.startsWith(prefix)));
+    }
+
+    public boolean contains(@NotNull String key) {
+        return get(key) != null;
+    }
+
+    public @NotNull Set<String> keys() {
+        return Collections.unmodifiableSet(withCache(cache -> new TreeSet<>(cache.asMap().keySet())));
+    }
+
+    public long size() {
+        return withCache(Cache::size);
+    }
+
+    /**
+     * Writes all entries to a temporary file next to the path, then moves it to the path.
+     */
+    public void save(@NotNull Path path) throws IOException {
+        Path parent = path.toAbsolutePath().getParent();
+        Files.createDirectories(parent);
+        Path tmp = Files.createTempFile(parent, path.getFileName().toString(), ".tmp");
+        try {
+            Map<String, Object> entries = withCache(cache -> new HashMap<>(cache.asMap()));
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+                out.writeInt(FORMAT_VERSION);
+                out.writeInt(entries.size());
+                for (Map.Entry<String, Object> entry : entries.entrySet()) {
+                    writeString(out, entry.getKey());
+                    writeValue(out, entry.getValue());
+                }
+            }
+            try {
+                Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING);
+            }
+            LOGGER.info("Saved {} states to {}", entries.size(), path);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    /**
+     * Adds the entries in the file written by {@link #save(Path)}, replacing the existing entries with the same key.
+     * Does nothing if the file does not exist.
+     */
+    public void load(@NotNull Path path) throws IOException {
+        if (!Files.exists(path)) return;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            int version = in.readInt();
+            if (version != FORMAT_VERSION) throw new IOException("Unsupported state file version: " + version);
+            int size = in.readInt();
+            for (int i = 0; i < size; i++) {
+                String key = readString(in);
+                Object value = readValue(in);
+                withCache(cache -> {
+                    cache.put(key, value);
+                    return null;
+                });
+            }
+            LOGGER.info("Loaded {} states from {}", size, path);
+        }
+    }
+
+    private static @NotNull Object checkValue(@Nullable Object value) {
+        if (value instanceof String || value instanceof Boolean || value instanceof Character || value instanceof byte[]
+                || value instanceof Byte || value instanceof Short || value instanceof Integer || value instanceof Long
+                || value instanceof Float || value instanceof Double) {
+            return value;
+        }
+        throw new IllegalArgumentException("Unsupported state value (use a StateCodec): " + (value == null ? "null" : value.getClass().getName()));
+    }
+
+    private static int estimateSize(@NotNull Object value) {
+        if (value instanceof String) return 40 + ((String) value).length() * 2;
+        if (value instanceof byte[]) return 16 + ((byte[]) value).length;
+        return 16;
+    }
+
+    private static void writeValue(@NotNull DataOutputStream out, @NotNull Object value) throws IOException {
+        if (value instanceof String) {
+            out.writeByte('S');
+            writeString(out, (String) value);
+        } else if (value instanceof byte[]) {
+            out.writeByte('A');
+            out.writeInt(((byte[]) value).length);
+            out.write((byte[]) value);
+        } else if (value instanceof Boolean) {
+            out.writeByte('Z');
+            out.writeBoolean((Boolean) value);
+        } else if (value instanceof Character) {
+            out.writeByte('C');
+            out.writeChar((Character) value);
+        } else if (value instanceof Byte) {
+            out.writeByte('B');
+            out.writeByte((Byte) value);
+        } else if (value instanceof Short) {
+            out.writeByte('H');
+            out.writeShort((Short) value);
+        } else if (value instanceof Integer) {
+            out.writeByte('I');
+            out.writeInt((Integer) value);
+        } else if (value instanceof Long) {
+            out.writeByte('J');
+            out.writeLong((Long) value);
+        } else if (value instanceof Float) {
+            out.writeByte('F');
+            out.writeFloat((Float) value);
+        } else if (value instanceof Double) {
+            out.writeByte('D');
+            out.writeDouble((Double) value);
+        } else {
+            throw new IOException("Unsupported state value: " + value.getClass().getName());
+        }
+    }
+
+    private static @NotNull Object readValue(@NotNull DataInputStream in) throws IOException {
+        int type = in.readByte();
+        switch (type) {
+            case 'S':
+                return readString(in);
+            case 'A':
+                byte[] bytes = new byte[in.readInt()];
+                in.readFully(bytes);
+                return bytes;
+            case 'Z':
+                return in.readBoolean();
+            case 'C':
+                return in.readChar();
+            case 'B':
+                return in.readByte();
+            case 'H':
+                return in.readShort();
+            case 'I':
+                return in.readInt();
+            case 'J':
+                return in.readLong();
+            case 'F':
+                return in.readFloat();
+            case 'D':
+                return in.readDouble();
+            default:
+                throw new IOException("Unknown state value type: " + type);
+        }
+    }
+
+    // DataOutputStream#writeUTF is limited to 64KB
+    private static void writeString(@NotNull DataOutputStream out, @NotNull String s) throws IOException {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static @NotNull String readString(@NotNull DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
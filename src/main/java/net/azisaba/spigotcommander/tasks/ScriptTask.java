@@ -0,0 +1,57 @@
+package net.azisaba.spigotcommander.tasks;
+
+import net.azisaba.spigotcommander.metrics.InvocationStats;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * A periodic job declared in the tasks section of the config.
+ */
+public final class ScriptTask {
+    private final String name;
+    private final Runnable runnable;
+    private final int intervalTicks;
+    private final boolean async;
+    private final InvocationStats stats;
+
+    /**
+     * @param name the name of the task in the config
+     * @param runnable the script instance to run
+     * @param intervalTicks the number of ticks between two runs
+     * @param async true to run the task on the worker pool instead of the main thread
+     * @param stats the stats to record the runs to, or null if metrics are disabled
+     */
+    public ScriptTask(@NotNull String name, @NotNull Runnable runnable, int intervalTicks, boolean async, @Nullable InvocationStats stats) {
+        if (intervalTicks < 1) throw new IllegalArgumentException("intervalTicks must be at least 1: " + intervalTicks);
+        this.name = name;
+        this.runnable = runnable;
+        this.intervalTicks = intervalTicks;
+        this.async = async;
+        this.stats = stats;
+    }
+
+    public @NotNull String getName() {
+        return name;
+    }
+
+    public @NotNull Runnable getRunnable() {
+        return runnable;
+    }
+
+    public int getIntervalTicks() {
+        return intervalTicks;
+    }
+
+    public boolean isAsync() {
+        return async;
+    }
+
+    public @Nullable InvocationStats getStats() {
+        return stats;
+    }
+
+    @Override
+    public String toString() {
+        return "ScriptTask{" + name + ", every " + intervalTicks + " ticks" + (async ? ", async" : "") + ", " + runnable + "}";
+    }
+}
@@ -0,0 +1,243 @@
+package net.azisaba.spigotcommander.tasks;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import net.azisaba.spigotcommander.metrics.InvocationStats;
+import net.azisaba.spigotcommander.metrics.StallWatchdog;
+import org.bukkit.Bukkit;
+import org.bukkit.plugin.Plugin;
+import org.bukkit.scheduler.BukkitTask;
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs the tasks of the current generation from a single Bukkit task running every tick.
+ * <ul>
+ *     <li>Each task gets a tick offset within its interval, chosen so that as few tasks as possible fall on the same
+ *     tick.</li>
+ *     <li>Main thread tasks that are due are queued and run until the time budget of the tick is used up. The rest
+ *     stay queued for the next tick. At least one task runs per tick, and a task that is still queued when it is due
+ *     again is not queued twice.</li>
+ *     <li>Async tasks run on a bounded worker pool. A run is skipped if the previous one has not finished.</li>
+ * </ul>
+ * The tasks are replaced as a whole on reload; queued runs of the old tasks are dropped and running async ones are
+ * interrupted. All methods except {@link #configure(long, int, int)} must be called on the main thread.
+ */
+public final class ScriptTaskScheduler {
+    private static final Logger LOGGER = LoggerFactory.getLogger("SpigotCommander");
+    // ticks over which the offsets are balanced
+    private static final int SPREAD_TICKS = 1200;
+    private final Plugin plugin;
+    private final StallWatchdog stallWatchdog;
+    private final Deque<Entry> queue = new ArrayDeque<>();
+    private List<Entry> entries = Collections.emptyList();
+    private BukkitTask timer;
+    private long tick;
+    private long deferred;
+    private volatile long budgetNanos = TimeUnit.MILLISECONDS.toNanos(5);
+    private volatile ThreadPoolExecutor executor;
+    private int threads;
+    private int queueSize;
+
+    /**
+     * @param plugin the plugin to run the timer as
+     * @param stallWatchdog the watchdog to mark the main thread runs of the tasks on
+     */
+    public ScriptTaskScheduler(@NotNull Plugin plugin, @NotNull StallWatchdog stallWatchdog) {
+        this.plugin = plugin;
+        this.stallWatchdog = stallWatchdog;
+    }
+
+    /**
+     * Applies the configuration. The worker pool is replaced if the number of threads or the queue size changed.
+     * @param budgetNanos the main thread time the tasks may use per tick
+     * @param threads the number of threads running the async tasks
+     * @param queueSize the number of async runs that may wait for a thread
+     */
+    public synchronized void configure(long budgetNanos, int threads, int queueSize) {
+        this.budgetNanos = budgetNanos;
+        threads = Math.max(1, threads);
+        queueSize = Math.max(1, queueSize);
+        if (executor != null && this.threads == threads && this.queueSize == queueSize) return;
+        if (executor != null) executor.shutdown();
+        this.threads = threads;
+        this.queueSize = queueSize;
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS, new ArrayBlockingQueue<>(queueSize),
+                new ThreadFactoryBuilder().setNameFormat("SpigotCommander Task #%d").setDaemon(true).build());
+        executor.allowCoreThreadTimeOut(true);
+        this.executor = executor;
+    }
+
+    public void start() {
+        if (timer == null) timer = Bukkit.getScheduler().runTaskTimer(plugin, this::tick, 1, 1);
+    }
+
+    /**
+     * Replaces the tasks. The offsets of the new tasks are assigned here.
+     */
+    public void setTasks(@NotNull List<ScriptTask> tasks) {
+        cancelAll();
+        List<Entry> newEntries = new ArrayList<>();
+        assignOffsets(tasks).forEach((task, offset) -> {
+            newEntries.add(new Entry(task, offset));
+            LOGGER.info("Scheduled task {} every {} ticks{} (offset {})", task.getName(), task.getIntervalTicks(), task.isAsync() ? " asynchronously" : "", offset);
+        });
+        entries = newEntries;
+    }
+
+    /**
+     * Chooses the tick offset of each task.
+     * @return map of task to its offset (less than its interval), in the order the offsets were chosen
+     */
+    static @NotNull Map<ScriptTask, Integer> assignOffsets(@NotNull List<ScriptTask> tasks) {
+        Map<ScriptTask, Integer> offsets = new LinkedHashMap<>();
+        int[] load = new int[SPREAD_TICKS];
+        // place the most frequent tasks first, they are the hardest to spread
+        List<ScriptTask> sorted = new ArrayList<>(tasks);
+        sorted.sort(Comparator.comparingInt(ScriptTask::getIntervalTicks));
+        for (ScriptTask task : sorted) {
+            int offset = chooseOffset(load, task.getIntervalTicks());
+            for (int t = offset; t < SPREAD_TICKS; t += task.getIntervalTicks()) load[t]++;
+            offsets.put(task, offset);
+        }
+        return offsets;
+    }
+
+    /**
+     * Returns the offset (less than the interval) whose ticks are the least busy.
+     */
+    private static int chooseOffset(int[] load, int interval) {
+        int best = 0;
+        long bestMax = Long.MAX_VALUE;
+        long bestSum = Long.MAX_VALUE;
+        for (int offset = 0; offset < Math.min(interval, SPREAD_TICKS); offset++) {
+            long max = 0;
+            long sum = 0;
+            for (int t = offset; t < SPREAD_TICKS; t += interval) {
+                max = Math.max(max, load[t]);
+                sum += load[t];
+            }
+            if (max < bestMax || (max == bestMax && sum < bestSum)) {
+                best = offset;
+                bestMax = max;
+                bestSum = sum;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * @return the number of main thread runs deferred to a later tick because the budget was used up
+     */
+    public long getDeferredCount() {
+        return deferred;
+    }
+
+    private void tick() {
+        tick++;
+        for (Entry entry : entries) {
+            if ((tick - entry.offset) % entry.task.getIntervalTicks() != 0) continue;
+            if (entry.task.isAsync()) {
+                submit(entry);
+            } else if (!entry.queued) {
+                entry.queued = true;
+                queue.add(entry);
+            }
+        }
+        long start = System.nanoTime();
+        boolean first = true;
+        while (!queue.isEmpty()) {
+            if (!first && System.nanoTime() - start >= budgetNanos) {
+                deferred += queue.size();
+                LOGGER.debug("Tick budget used up, deferred {} tasks", queue.size());
+                break;
+            }
+            first = false;
+            Entry entry = queue.poll();
+            entry.queued = false;
+            boolean watched = stallWatchdog.enter(entry.watchName);
+            try {
+                run(entry.task);
+            } finally {
+                if (watched) stallWatchdog.exit();
+            }
+        }
+    }
+
+    private void submit(@NotNull Entry entry) {
+        Future<?> running = entry.running;
+        if (running != null && !running.isDone()) {
+            LOGGER.debug("Skipped task {}: the previous run has not finished", entry.task.getName());
+            return;
+        }
+        ThreadPoolExecutor executor = this.executor;
+        if (executor == null) return;
+        try {
+            entry.running = executor.submit(() -> run(entry.task));
+        } catch (RejectedExecutionException e) {
+            LOGGER.warn("Skipped task {}: too many async tasks are waiting", entry.task.getName());
+        }
+    }
+
+    private static void run(@NotNull ScriptTask task) {
+        InvocationStats stats = task.getStats();
+        long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            task.getRunnable().run();
+            failed = false;
+        } catch (Throwable t) {
+            LOGGER.error("Task {} threw an exception", task.getName(), t);
+        } finally {
+            if (stats != null) stats.record(System.nanoTime() - start, failed);
+        }
+    }
+
+    private void cancelAll() {
+        queue.clear();
+        for (Entry entry : entries) {
+            entry.queued = false;
+            Future<?> running = entry.running;
+            if (running != null) running.cancel(true);
+        }
+        entries = Collections.emptyList();
+    }
+
+    /**
+     * Cancels the tasks, stops the timer and the worker pool.
+     */
+    public void shutdown() {
+        cancelAll();
+        if (timer != null) {
+            timer.cancel();
+            timer = null;
+        }
+        ThreadPoolExecutor executor;
+        synchronized (this) {
+            executor = this.executor;
+            this.executor = null;
+        }
+        if (executor != null) executor.shutdownNow();
+    }
+
+    private static final class Entry {
+        private final ScriptTask task;
+        private final int offset;
+        private final String watchName;
+        private boolean queued;
+        private volatile Future<?> running;
+
+        private Entry(@NotNull ScriptTask task, int offset) {
+            this.task = task;
+            this.offset = offset;
+            this.watchName = task.getRunnable().getClass().getSimpleName() + "#run (task " + task.getName() + ")";
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package net.azisaba.spigotcommander.timings;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Time spent in each phase of a single reload. Phases may be recorded from multiple threads, and a phase recorded more
+ * than once is accumulated.
+ */
+public final class ReloadTimings {
+    public static final String SOURCES = "sources";
+    public static final String PRECOMPILED = "precompiled";
+    public static final String CLASSPATH = "classpath";
+    public static final String COMPILE = "compile";
+    // reading and writing compiled scripts (compiler.bundle, compiler.cache and the artifact store)
+    public static final String CACHE = "cache";
+    public static final String CLASS_LOADING = "class-loading";
+    public static final String CONSTRUCT = "construct";
+    public static final String UNREGISTER = "unregister";
+    public static final String REGISTRATION = "registration";
+    public static final String SYNC_COMMANDS = "sync-commands";
+
+    private final long startedAt = System.currentTimeMillis();
+    private final long startNanos = System.nanoTime();
+    private final Map<String, Long> phases = new LinkedHashMap<>();
+    private final Map<String, Long> files = new LinkedHashMap<>();
+    private volatile long totalNanos = -1;
+    private volatile boolean success;
+
+    /**
+     * Starts timing the phase. The elapsed time is added to the phase when the returned timing is closed.
+     */
+    public @NotNull Timing start(@NotNull String phase) {
+        return new Timing(phase, System.nanoTime());
+    }
+
+    public synchronized void add(@NotNull String phase, long nanos) {
+        phases.merge(phase, nanos, Long::sum);
+    }
+
+    /**
+     * Records the compile time of a single source file.
+     */
+    public synchronized void addFile(@NotNull String file, long nanos) {
+        files.merge(file, nanos, Long::sum);
+    }
+
+    /**
+     * Marks the reload as finished. Calls after the first one are ignored.
+     */
+    public void finish(boolean success) {
+        if (totalNanos != -1) return;
+        this.success = success;
+        this.totalNanos = System.nanoTime() - startNanos;
+    }
+
+    /**
+     * Returns the time when the reload started, in epoch milliseconds.
+     */
+    public long getStartedAt() {
+        return startedAt;
+    }
+
+    /**
+     * Returns the total (wall clock) time of the reload in nanoseconds, or -1 if it has not finished yet.
+     */
+    public long getTotalNanos() {
+        return totalNanos;
+    }
+
+    public boolean isFinished() {
+        return totalNanos != -1;
+    }
+
+    public boolean isSuccess() {
+        return success;
+    }
+
+    /**
+     * Returns the time spent in each phase in nanoseconds, in the order the phases were first recorded.
+     */
+    public synchronized @NotNull Map<String, Long> getPhases() {
+        return Collections.unmodifiableMap(new LinkedHashMap<>(phases));
+    }
+
+    /**
+     * Returns the compile time of each source file in nanoseconds. Only available when the files are compiled one by
+     * one (compiler.in-memory: false); in-memory compilation compiles every file in a single task.
+     */
+    public synchronized @NotNull Map<String, Long> getFiles() {
+        return Collections.unmodifiableMap(new LinkedHashMap<>(files));
+    }
+
+    public final class Timing implements AutoCloseable {
+        private final String phase;
+        private final long start;
+
+        private Timing(@NotNull String phase, long start) {
+            this.phase = phase;
+            this.start = start;
+        }
+
+        @Override
+        public void close() {
+            add(phase, System.nanoTime() - start);
+        }
+    }
+}
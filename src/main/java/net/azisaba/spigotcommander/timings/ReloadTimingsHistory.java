@@ -0,0 +1,154 @@
+package net.azisaba.spigotcommander.timings;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps the timings of the most recent reloads.
+ */
+public final class ReloadTimingsHistory implements ReloadTimingsMXBean {
+    private static final Logger LOGGER = LoggerFactory.getLogger("SpigotCommander");
+    private static final String OBJECT_NAME = "net.azisaba.spigotcommander:type=ReloadTimings";
+    private final int capacity;
+    private final Deque<ReloadTimings> history = new ArrayDeque<>();
+    private final AtomicLong reloadCount = new AtomicLong();
+    private final AtomicLong failedReloadCount = new AtomicLong();
+
+    public ReloadTimingsHistory(int capacity) {
+        if (capacity <= 0) throw new IllegalArgumentException("capacity must be positive");
+        this.capacity = capacity;
+    }
+
+    /**
+     * Adds finished timings to the history, removing the oldest entry if the history is full.
+     */
+    public void add(@NotNull ReloadTimings timings) {
+        if (!timings.isFinished()) throw new IllegalArgumentException("timings are not finished");
+        reloadCount.incrementAndGet();
+        if (!timings.isSuccess()) failedReloadCount.incrementAndGet();
+        synchronized (history) {
+            if (history.size() >= capacity) history.removeFirst();
+            history.addLast(timings);
+        }
+    }
+
+    /**
+     * Returns the timings in the history, oldest first.
+     */
+    public @NotNull List<ReloadTimings> getHistory() {
+        synchronized (history) {
+            return Collections.unmodifiableList(new ArrayList<>(history));
+        }
+    }
+
+    public @Nullable ReloadTimings getLast() {
+        synchronized (history) {
+            return history.peekLast();
+        }
+    }
+
+    /**
+     * Registers this history to the platform MBean server, replacing the previously registered one (if any).
+     */
+    public void registerMBean() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (server.isRegistered(name)) server.unregisterMBean(name);
+            server.registerMBean(this, name);
+        } catch (JMException e) {
+            LOGGER.warn("Failed to register MBean {}", OBJECT_NAME, e);
+        }
+    }
+
+    public static void unregisterMBean() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (server.isRegistered(name)) server.unregisterMBean(name);
+        } catch (JMException e) {
+            LOGGER.warn("Failed to unregister MBean {}", OBJECT_NAME, e);
+        }
+    }
+
+    @Override
+    public long getReloadCount() {
+        return reloadCount.get();
+    }
+
+    @Override
+    public long getFailedReloadCount() {
+        return failedReloadCount.get();
+    }
+
+    @Override
+    public double getLastReloadMillis() {
+        ReloadTimings last = getLast();
+        return last == null ? 0 : toMillis(last.getTotalNanos());
+    }
+
+    @Override
+    public double getAverageReloadMillis() {
+        List<ReloadTimings> list = getHistory();
+        if (list.isEmpty()) return 0;
+        long sum = 0;
+        for (ReloadTimings timings : list) sum += timings.getTotalNanos();
+        return toMillis(sum) / list.size();
+    }
+
+    @Override
+    public double getMaxReloadMillis() {
+        long max = 0;
+        for (ReloadTimings timings : getHistory()) max = Math.max(max, timings.getTotalNanos());
+        return toMillis(max);
+    }
+
+    @Override
+    public Map<String, Double> getLastPhaseMillis() {
+        ReloadTimings last = getLast();
+        return last == null ? Collections.emptyMap() : toMillis(last.getPhases());
+    }
+
+    @Override
+    public Map<String, Double> getAveragePhaseMillis() {
+        List<ReloadTimings> list = getHistory();
+        Map<String, Long> sum = new LinkedHashMap<>();
+        for (ReloadTimings timings : list) {
+            timings.getPhases().forEach((phase, nanos) -> sum.merge(phase, nanos, Long::sum));
+        }
+        Map<String, Double> average = new LinkedHashMap<>();
+        sum.forEach((phase, nanos) -> average.put(phase, toMillis(nanos) / list.size()));
+        return average;
+    }
+
+    @Override
+    public Map<String, Double> getLastFileCompileMillis() {
+        ReloadTimings last = getLast();
+        return last == null ? Collections.emptyMap() : toMillis(last.getFiles());
+    }
+
+    public static double toMillis(long nanos) {
+        return nanos / 1_000_000.0;
+    }
+
+    private static @NotNull Map<String, Double> toMillis(@NotNull Map<String, Long> nanos) {
+        Map<String, Double> millis = new LinkedHashMap<>();
+        nanos.forEach((key, value) -> millis.put(key, toMillis(value)));
+        return millis;
+    }
+}
@@ -0,0 +1,25 @@
+package net.azisaba.spigotcommander.timings;
+
+import java.util.Map;
+
+/**
+ * Reload timings published via JMX as {@code net.azisaba.spigotcommander:type=ReloadTimings}. All times are in
+ * milliseconds.
+ */
+public interface ReloadTimingsMXBean {
+    long getReloadCount();
+
+    long getFailedReloadCount();
+
+    double getLastReloadMillis();
+
+    double getAverageReloadMillis();
+
+    double getMaxReloadMillis();
+
+    Map<String, Double> getLastPhaseMillis();
+
+    Map<String, Double> getAveragePhaseMillis();
+
+    Map<String, Double> getLastFileCompileMillis();
+}
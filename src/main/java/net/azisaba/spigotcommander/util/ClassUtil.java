@@ -1,11 +1,16 @@
 package net.azisaba.spigotcommander.util;
 
 import net.azisaba.spigotcommander.SpigotCommander;
-import org.bukkit.plugin.Plugin;
-import org.bukkit.plugin.java.JavaPlugin;
 import org.jetbrains.annotations.NotNull;
 
 public class ClassUtil {
+    private static final ClassValue<ConstructorFactory<?>> FACTORIES = new ClassValue<ConstructorFactory<?>>() {
+        @Override
+        protected ConstructorFactory<?> computeValue(Class<?> type) {
+            return ConstructorFactory.resolve(type);
+        }
+    };
+
     public static @NotNull Object construct(@NotNull ClassLoader cl, @NotNull String className, @NotNull SpigotCommander plugin) {
         Class<?> clazz;
         try {
@@ -13,28 +18,22 @@ public class ClassUtil {
         } catch (ClassNotFoundException e) {
             throw new RuntimeException(e);
         }
-        try {
-            return clazz.getConstructor().newInstance();
-        } catch (ReflectiveOperationException ignored) {
-        }
-        try {
-            return clazz.getConstructor(Plugin.class).newInstance(plugin);
-        } catch (ReflectiveOperationException ignored) {
-        }
-        try {
-            return clazz.getConstructor(JavaPlugin.class).newInstance(plugin);
-        } catch (ReflectiveOperationException ignored) {
-        }
-        try {
-            return clazz.getConstructor(SpigotCommander.class).newInstance(plugin);
-        } catch (ReflectiveOperationException ignored) {
-        }
-        String error = "No valid constructor found in " + clazz.getCanonicalName() + "\n";
-        error += "Class must have one of these constructors:\n";
-        error += "- public " + clazz.getSimpleName() + "()\n";
-        error += "- public " + clazz.getSimpleName() + "(org.bukkit.plugin.Plugin)\n";
-        error += "- public " + clazz.getSimpleName() + "(org.bukkit.plugin.java.JavaPlugin)\n";
-        error += "- public " + clazz.getSimpleName() + "(" + SpigotCommander.class.getCanonicalName() + ")";
-        throw new RuntimeException(error);
+        return getFactory(clazz).newInstance(plugin);
+    }
+
+    /**
+     * Creates an instance of the class using one of the supported constructors (no arguments, {@code Plugin},
+     * {@code JavaPlugin} or {@code SpigotCommander}).
+     */
+    public static <T> @NotNull T newInstance(@NotNull Class<T> clazz, @NotNull SpigotCommander plugin) {
+        return getFactory(clazz).newInstance(plugin);
+    }
+
+    /**
+     * Returns the factory for the class. The constructors are only inspected on the first call for each class.
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> @NotNull ConstructorFactory<T> getFactory(@NotNull Class<T> clazz) {
+        return (ConstructorFactory<T>) FACTORIES.get(clazz);
     }
 }
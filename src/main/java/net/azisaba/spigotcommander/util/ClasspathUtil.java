@@ -5,8 +5,14 @@ import org.jetbrains.annotations.NotNull;
 
 import java.io.File;
 import java.net.URISyntaxException;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 public class ClasspathUtil {
+    private static final Pattern JAR_URL_PATTERN = Pattern.compile("^(.*\\.jar)!.*$");
+    private static final Pattern CLASS_FILE_PATTERN = Pattern.compile("(.*)/.*\\.class");
+    private static final Pattern WINDOWS_PATH_PATTERN = Pattern.compile("^/[A-Z]:/.*$");
+
     public static @NotNull String getClasspath(@NotNull Class<?> clazz) {
         Preconditions.checkNotNull(clazz, "class cannot be null");
         String path;
@@ -19,18 +25,19 @@ public class ClasspathUtil {
         } catch (URISyntaxException e) {
             throw new RuntimeException(e);
         }
-        if (path.matches("^(.*\\.jar)!.*$")) path = path.replaceAll("^(.*\\.jar)!.*$", "$1");
+        Matcher jarUrlMatcher = JAR_URL_PATTERN.matcher(path);
+        if (jarUrlMatcher.matches()) path = jarUrlMatcher.group(1);
         path = path.replace("\\", "/");
         if (!path.endsWith(".jar")) {
             if (clazz.getPackage() != null) {
                 path = path.replace(clazz.getPackage().getName().replace(".", "/"), "");
-                path = path.replaceAll("(.*)/.*\\.class", "$1");
+                path = CLASS_FILE_PATTERN.matcher(path).replaceAll("$1");
             } else {
                 path = path.replace(clazz.getTypeName().replace(".", "/") + ".class", "");
             }
         }
         if (path.endsWith("/") || path.endsWith("\\")) path = path.substring(0, path.length() - 1);
-        if (path.matches("^/[A-Z]:/.*$")) {
+        if (WINDOWS_PATH_PATTERN.matcher(path).matches()) {
             path = path.substring(1).replace("/", File.separator);
         }
         return path;
@@ -1,13 +1,59 @@
 package net.azisaba.spigotcommander.util;
 
 import org.bukkit.Bukkit;
+import org.bukkit.plugin.Plugin;
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicReference;
 
 public class CommandUtil {
+    private static final Logger LOGGER = LoggerFactory.getLogger("SpigotCommander");
+    private static final AtomicReference<CompletableFuture<Long>> PENDING_SYNC = new AtomicReference<>();
+    private static volatile MethodHandle syncCommands;
+
     public static void syncCommands() throws ReflectiveOperationException {
-        Method method = Bukkit.getServer().getClass().getDeclaredMethod("syncCommands");
-        method.setAccessible(true);
-        method.invoke(Bukkit.getServer());
+        MethodHandle handle = syncCommands;
+        if (handle == null) {
+            Method method = Bukkit.getServer().getClass().getDeclaredMethod("syncCommands");
+            method.setAccessible(true);
+            syncCommands = handle = MethodHandles.lookup().unreflect(method);
+        }
+        try {
+            handle.invoke(Bukkit.getServer());
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable t) {
+            throw new InvocationTargetException(t);
+        }
+    }
+
+    /**
+     * Calls {@link #syncCommands()} on the next tick. Requests made before it runs are merged into one.
+     * @return future completed with the time taken by the sync in nanoseconds (also if it failed)
+     */
+    public static @NotNull CompletableFuture<Long> requestSyncCommands(@NotNull Plugin plugin) {
+        CompletableFuture<Long> future = new CompletableFuture<>();
+        while (!PENDING_SYNC.compareAndSet(null, future)) {
+            CompletableFuture<Long> pending = PENDING_SYNC.get();
+            if (pending != null) return pending;
+        }
+        Bukkit.getScheduler().runTask(plugin, () -> {
+            PENDING_SYNC.compareAndSet(future, null);
+            long start = System.nanoTime();
+            try {
+                syncCommands();
+            } catch (Exception e) {
+                LOGGER.warn("Failed to sync commands", e);
+            }
+            future.complete(System.nanoTime() - start);
+        });
+        return future;
     }
 }
@@ -0,0 +1,116 @@
+package net.azisaba.spigotcommander.util;
+
+import net.azisaba.spigotcommander.SpigotCommander;
+import org.bukkit.plugin.Plugin;
+import org.bukkit.plugin.java.JavaPlugin;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Creates instances of a class through one of the supported constructors. The constructor is resolved once when the
+ * factory is created, see {@link ClassUtil#getFactory(Class)}.
+ * @param <T> the type of the instances
+ */
+public final class ConstructorFactory<T> {
+    /**
+     * Supported constructor parameters, in order of preference.
+     */
+    private static final List<Class<?>[]> SIGNATURES = Arrays.asList(
+            new Class<?>[0],
+            new Class<?>[]{Plugin.class},
+            new Class<?>[]{JavaPlugin.class},
+            new Class<?>[]{SpigotCommander.class}
+    );
+    private static final MethodType FACTORY_TYPE = MethodType.methodType(Object.class, SpigotCommander.class);
+
+    private final Class<T> clazz;
+    private final MethodHandle handle;
+    private final String error;
+
+    private ConstructorFactory(@NotNull Class<T> clazz, @Nullable MethodHandle handle, @Nullable String error) {
+        this.clazz = clazz;
+        this.handle = handle;
+        this.error = error;
+    }
+
+    /**
+     * Resolves the constructor of the class. Only called by the per-class cache in {@link ClassUtil}, so unsupported
+     * signatures are not resolved again for each instance.
+     */
+    @SuppressWarnings("unchecked")
+    static <T> @NotNull ConstructorFactory<T> resolve(@NotNull Class<T> clazz) {
+        // match the public constructors by hand, instead of throwing NoSuchMethodException for each unsupported
+        // signature
+        Constructor<?>[] publicConstructors = clazz.getConstructors();
+        for (Class<?>[] signature : SIGNATURES) {
+            Constructor<T> constructor = null;
+            for (Constructor<?> candidate : publicConstructors) {
+                if (Arrays.equals(candidate.getParameterTypes(), signature)) {
+                    constructor = (Constructor<T>) candidate;
+                    break;
+                }
+            }
+            if (constructor == null) continue;
+            try {
+                constructor.setAccessible(true);
+                MethodHandle handle = MethodHandles.lookup().unreflectConstructor(constructor);
+                if (signature.length == 0) {
+                    handle = MethodHandles.dropArguments(handle, 0, SpigotCommander.class);
+                }
+                return new ConstructorFactory<>(clazz, handle.asType(FACTORY_TYPE), null);
+            } catch (IllegalAccessException | RuntimeException e) {
+                return new ConstructorFactory<>(clazz, null, "Cannot access constructor " + constructor + ": " + e);
+            }
+        }
+        StringBuilder error = new StringBuilder("No valid constructor found in " + clazz.getCanonicalName() + "\n");
+        error.append("Class must have one of these constructors:\n");
+        for (Class<?>[] signature : SIGNATURES) {
+            error.append("- public ").append(clazz.getSimpleName()).append("(");
+            if (signature.length > 0) error.append(signature[0].getCanonicalName());
+            error.append(")\n");
+        }
+        error.append("Found constructors:");
+        Constructor<?>[] constructors = clazz.getDeclaredConstructors();
+        if (constructors.length == 0) error.append(" (none)");
+        for (Constructor<?> constructor : constructors) {
+            error.append("\n- ").append(constructor.toGenericString());
+        }
+        return new ConstructorFactory<>(clazz, null, error.toString());
+    }
+
+    public @NotNull Class<T> getType() {
+        return clazz;
+    }
+
+    /**
+     * Returns whether the class has a supported constructor.
+     */
+    public boolean isValid() {
+        return handle != null;
+    }
+
+    /**
+     * Creates a new instance. Exceptions thrown by the constructor are rethrown as is (checked ones are wrapped in
+     * {@link RuntimeException}).
+     * @param plugin the plugin to pass to the constructor if it takes one
+     * @return the new instance
+     * @throws RuntimeException if the class has no supported constructor
+     */
+    public @NotNull T newInstance(@NotNull SpigotCommander plugin) {
+        if (handle == null) throw new RuntimeException(error);
+        try {
+            return clazz.cast((Object) handle.invokeExact(plugin));
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable t) {
+            throw new RuntimeException(t);
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package net.azisaba.spigotcommander.util;
+
+import net.azisaba.spigotcommander.metrics.InvocationStats;
+import net.azisaba.spigotcommander.metrics.ScriptMetrics;
+import net.azisaba.spigotcommander.metrics.StallWatchdog;
+import org.bukkit.Bukkit;
+import org.bukkit.event.Event;
+import org.bukkit.event.EventException;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.Listener;
+import org.bukkit.plugin.EventExecutor;
+import org.bukkit.plugin.Plugin;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.*;
+
+/**
+ * Creates event executors that call the handler method through a {@link MethodHandle} resolved once at registration,
+ * instead of through {@link Method#invoke} (which checks the access and boxes the arguments on every call).
+ * <p>
+ * Paper's {@code EventExecutor.create} is not used, as it keeps the generated executors (and so the script class
+ * loader) in a cache for the lifetime of the server.
+ */
+public class EventExecutorFactory {
+    private static final Logger LOGGER = LoggerFactory.getLogger("SpigotCommander");
+    private static final MethodType EXECUTOR_TYPE = MethodType.methodType(void.class, Listener.class, Event.class);
+
+    /**
+     * Registers all {@link EventHandler} methods of the listener, like
+     * {@link org.bukkit.plugin.PluginManager#registerEvents(Listener, Plugin)} does.
+     * @param listener the listener
+     * @param plugin the plugin to register the listener as
+     */
+    public static void registerEvents(@NotNull Listener listener, @NotNull Plugin plugin) {
+        registerEvents(listener, plugin, null);
+    }
+
+    /**
+     * Registers all {@link EventHandler} methods of the listener, like
+     * {@link org.bukkit.plugin.PluginManager#registerEvents(Listener, Plugin)} does.
+     * @param listener the listener
+     * @param plugin the plugin to register the listener as
+     * @param metrics if not null, the invocations of each handler are recorded to it
+     */
+    public static void registerEvents(@NotNull Listener listener, @NotNull Plugin plugin, @Nullable ScriptMetrics metrics) {
+        registerEvents(listener, plugin, metrics, null);
+    }
+
+    /**
+     * Registers all {@link EventHandler} methods of the listener, like
+     * {@link org.bukkit.plugin.PluginManager#registerEvents(Listener, Plugin)} does.
+     * @param listener the listener
+     * @param plugin the plugin to register the listener as
+     * @param metrics if not null, the invocations of each handler are recorded to it
+     * @param stallWatchdog if not null, the calls of each handler are marked on it
+     */
+    public static void registerEvents(@NotNull Listener listener, @NotNull Plugin plugin, @Nullable ScriptMetrics metrics, @Nullable StallWatchdog stallWatchdog) {
+        Set<Method> methods = new LinkedHashSet<>(Arrays.asList(listener.getClass().getMethods()));
+        methods.addAll(Arrays.asList(listener.getClass().getDeclaredMethods()));
+        for (Method method : methods) {
+            EventHandler eventHandler = method.getAnnotation(EventHandler.class);
+            if (eventHandler == null || method.isBridge() || method.isSynthetic()) continue;
+            if (method.getParameterCount() != 1 || !Event.class.isAssignableFrom(method.getParameterTypes()[0])) {
+                LOGGER.error("{} attempted to register an invalid EventHandler method signature \"{}\" in {}", plugin.getName(), method.toGenericString(), listener.getClass());
+                continue;
+            }
+            Class<? extends Event> eventClass = method.getParameterTypes()[0].asSubclass(Event.class);
+            EventExecutor executor = create(method, eventClass);
+            String name = listener.getClass().getSimpleName() + "#" + method.getName() + "(" + eventClass.getSimpleName() + ")";
+            if (metrics != null) {
+                executor = timed(executor, eventClass, metrics.listener(name));
+            }
+            if (stallWatchdog != null) {
+                executor = watched(executor, eventClass, stallWatchdog, name);
+            }
+            Bukkit.getPluginManager().registerEvent(eventClass, listener, eventHandler.priority(), executor, plugin, eventHandler.ignoreCancelled());
+        }
+    }
+
+    /**
+     * Creates an executor for the handler method, which ignores the events that are not instances of the event class
+     * like the executors created by Bukkit. Falls back to a reflective executor if the method handle cannot be
+     * created.
+     */
+    public static @NotNull EventExecutor create(@NotNull Method method, @NotNull Class<? extends Event> eventClass) {
+        try {
+            method.setAccessible(true);
+            MethodHandle handle = MethodHandles.lookup().unreflect(method);
+            // static handlers are called with the listener too, like Method#invoke ignores it
+            if (Modifier.isStatic(method.getModifiers())) handle = MethodHandles.dropArguments(handle, 0, Listener.class);
+            // casts the listener and the event, and drops the return value (if any)
+            MethodHandle executorHandle = handle.asType(EXECUTOR_TYPE);
+            return (listener, event) -> {
+                if (!eventClass.isInstance(event)) return;
+                try {
+                    executorHandle.invokeExact(listener, event);
+                } catch (Throwable t) {
+                    throw new EventException(t);
+                }
+            };
+        } catch (IllegalAccessException | RuntimeException e) {
+            LOGGER.warn("Failed to create method handle for {}, falling back to reflection", method, e);
+        }
+        return (listener, event) -> {
+            if (!eventClass.isAssignableFrom(event.getClass())) return;
+            try {
+                method.invoke(listener, event);
+            } catch (InvocationTargetException e) {
+                throw new EventException(e.getCause());
+            } catch (Throwable t) {
+                throw new EventException(t);
+            }
+        };
+    }
+
+    private static @NotNull EventExecutor timed(@NotNull EventExecutor executor, @NotNull Class<? extends Event> eventClass, @NotNull InvocationStats stats) {
+        return (listener, event) -> {
+            // don't count the events the executor ignores anyway
+            if (!eventClass.isInstance(event)) return;
+            long start = System.nanoTime();
+            boolean failed = true;
+            try {
+                executor.execute(listener, event);
+                failed = false;
+            } finally {
+                stats.record(System.nanoTime() - start, failed);
+            }
+        };
+    }
+
+    private static @NotNull EventExecutor watched(@NotNull EventExecutor executor, @NotNull Class<? extends Event> eventClass, @NotNull StallWatchdog watchdog, @NotNull String name) {
+        return (listener, event) -> {
+            if (!eventClass.isInstance(event)) return;
+            boolean watched = watchdog.enter(name);
+            try {
+                executor.execute(listener, event);
+            } finally {
+                if (watched) watchdog.exit();
+            }
+        };
+    }
+}
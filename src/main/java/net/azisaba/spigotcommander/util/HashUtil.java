@@ -0,0 +1,36 @@
+package net.azisaba.spigotcommander.util;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+public class HashUtil {
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    public static @NotNull MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    public static @NotNull String sha256(byte @NotNull [] bytes) {
+        return toHex(newDigest().digest(bytes));
+    }
+
+    public static @NotNull String sha256(@NotNull String s) {
+        return sha256(s.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public static @NotNull String toHex(byte @NotNull [] bytes) {
+        char[] chars = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            chars[i * 2] = HEX[(bytes[i] >> 4) & 0xf];
+            chars[i * 2 + 1] = HEX[bytes[i] & 0xf];
+        }
+        return new String(chars);
+    }
+}
@@ -2,38 +2,114 @@ package net.azisaba.spigotcommander.util;
 
 import org.jetbrains.annotations.NotNull;
 
-import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 
+/**
+ * OutputStream that buffers the bytes and logs each complete line (decoded as UTF-8). Partial lines are kept until a
+ * line separator is written or the stream is closed.
+ */
 public abstract class LoggedBufferedOutputStream extends OutputStream {
-    protected static final String LINE_SEPARATOR = System.lineSeparator();
-
+    /**
+     * Returns the buffer to write into. Implementations decide whether the buffer is shared or per thread.
+     */
     @NotNull
-    protected abstract String getBuffer();
-
-    protected abstract void appendBuffer(@NotNull Object o);
-
-    protected abstract void setBuffer(@NotNull String buf);
+    protected abstract LineBuffer getBuffer();
 
-    protected abstract void log(@NotNull String buf);
+    protected abstract void log(@NotNull String line);
 
     @Override
     public void write(int i) {
-        // append to buffer and flush if necessary
-        appendBuffer(String.valueOf((char) i));
-        //setBuffer(getBuffer() + new String(new byte[]{(byte) (i & 0xff)}));
-        if (getBuffer().endsWith(LINE_SEPARATOR) || getBuffer().endsWith("\n")) {
-            flush();
+        LineBuffer buf = getBuffer();
+        if (i == '\n') {
+            emit(buf);
+        } else {
+            buf.append((byte) i);
+        }
+    }
+
+    @Override
+    public void write(byte @NotNull [] b, int off, int len) {
+        if (off < 0 || len < 0 || off + len > b.length) throw new IndexOutOfBoundsException();
+        LineBuffer buf = getBuffer();
+        int end = off + len;
+        int start = off;
+        for (int i = off; i < end; i++) {
+            if (b[i] == '\n') {
+                buf.append(b, start, i - start);
+                emit(buf);
+                start = i + 1;
+            }
         }
+        buf.append(b, start, end - start);
     }
 
+    /**
+     * Does nothing; partial lines are only logged once they are terminated or the stream is closed, so that a flush
+     * in the middle of a line does not split it.
+     */
     @Override
     public void flush() {
-        String buf = getBuffer();
-        if (buf.trim().isEmpty()) {
-            return;
+    }
+
+    /**
+     * Logs the remaining partial line of the current buffer. The stream stays usable after closing.
+     */
+    @Override
+    public void close() {
+        emit(getBuffer());
+    }
+
+    private void emit(@NotNull LineBuffer buf) {
+        int len = buf.size;
+        if (len > 0 && buf.bytes[len - 1] == '\r') len--;
+        boolean blank = true;
+        for (int i = 0; i < len; i++) {
+            if ((buf.bytes[i] & 0xff) > ' ') {
+                blank = false;
+                break;
+            }
+        }
+        if (!blank) {
+            log(new String(buf.bytes, 0, len, StandardCharsets.UTF_8));
+        }
+        buf.reset();
+    }
+
+    /**
+     * Growable byte array holding the current line.
+     */
+    protected static final class LineBuffer {
+        private static final int INITIAL_CAPACITY = 256;
+        private static final int MAX_RETAINED_CAPACITY = 8192;
+        private byte[] bytes = new byte[INITIAL_CAPACITY];
+        private int size;
+
+        private void append(byte b) {
+            ensureCapacity(size + 1);
+            bytes[size++] = b;
+        }
+
+        private void append(byte @NotNull [] b, int off, int len) {
+            if (len == 0) return;
+            ensureCapacity(size + len);
+            System.arraycopy(b, off, bytes, size, len);
+            size += len;
+        }
+
+        private void ensureCapacity(int capacity) {
+            if (capacity > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(capacity, bytes.length * 2));
+            }
+        }
+
+        private void reset() {
+            size = 0;
+            // don't keep a huge array around after an unusually long line
+            if (bytes.length > MAX_RETAINED_CAPACITY) {
+                bytes = new byte[INITIAL_CAPACITY];
+            }
         }
-        log(buf.substring(0, buf.length() - 1));
-        setBuffer("");
     }
 }
@@ -0,0 +1,168 @@
+package net.azisaba.spigotcommander.util;
+
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.jar.JarEntry;
+import java.util.jar.JarInputStream;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Classes and jars built elsewhere (e.g. in CI), loaded into the script class loader without compiling. Class files
+ * must be laid out by package, like the output directory of javac. The contents of each file are kept along with its
+ * hash, so a file is only read again if it has been modified, and a jar is only opened again if its hash has changed.
+ * Not thread-safe.
+ */
+public class PrecompiledClasses {
+    private static final Logger LOGGER = LoggerFactory.getLogger("SpigotCommander");
+    private final Map<Path, Entry> entries = new HashMap<>();
+    private final Map<String, byte[]> classes = new HashMap<>();
+    private final Map<String, byte[]> resources = new HashMap<>();
+    private final List<String> classpath = new ArrayList<>();
+
+    /**
+     * Reads the class files and jars in the directory, reusing the contents of the files that have not changed since
+     * the last call. Nothing is loaded if the directory does not exist.
+     */
+    public void load(@NotNull Path dir) throws IOException {
+        Map<Path, Entry> previous = new HashMap<>(entries);
+        entries.clear();
+        classes.clear();
+        resources.clear();
+        classpath.clear();
+        if (!Files.isDirectory(dir)) return;
+        classpath.add(dir.toAbsolutePath().toString());
+        List<Path> files;
+        try (Stream<Path> stream = Files.walk(dir)) {
+            files = stream.filter(Files::isRegularFile).sorted().collect(Collectors.toList());
+        }
+        int reopened = 0;
+        for (Path path : files) {
+            String rel = dir.relativize(path).toString().replace(path.getFileSystem().getSeparator(), "/");
+            boolean jar = rel.endsWith(".jar");
+            if (jar) classpath.add(path.toAbsolutePath().toString());
+            Entry entry = previous.get(path);
+            long size = Files.size(path);
+            long lastModified = Files.getLastModifiedTime(path).toMillis();
+            if (entry == null || entry.size != size || entry.lastModified != lastModified) {
+                byte[] bytes = FileUtil.readAllBytes(path);
+                String hash = HashUtil.sha256(bytes);
+                if (entry == null || !entry.hash.equals(hash)) {
+                    entry = jar ? readJar(bytes, hash) : readFile(rel, bytes, hash);
+                    if (jar) reopened++;
+                }
+                entry = entry.withFileTime(size, lastModified);
+            }
+            entries.put(path, entry);
+            for (Map.Entry<String, byte[]> e : entry.classes.entrySet()) {
+                if (classes.put(e.getKey(), e.getValue()) != null) {
+                    LOGGER.warn("Class {} is found more than once in {}, using the one in {}", e.getKey(), dir, rel);
+                }
+            }
+            resources.putAll(entry.resources);
+        }
+        if (!files.isEmpty()) {
+            LOGGER.info("Loaded {} precompiled classes from {} ({} jars opened)", classes.size(), dir, reopened);
+        }
+    }
+
+    /**
+     * @return map of binary class name to bytecode
+     */
+    public @NotNull Map<String, byte[]> getClasses() {
+        return Collections.unmodifiableMap(classes);
+    }
+
+    /**
+     * @return map of resource name to contents
+     */
+    public @NotNull Map<String, byte[]> getResources() {
+        return Collections.unmodifiableMap(resources);
+    }
+
+    /**
+     * @return the directory and the jars, to be added to the compiler classpath so that scripts can reference them
+     */
+    public @NotNull List<String> getClasspath() {
+        return Collections.unmodifiableList(classpath);
+    }
+
+    /**
+     * @return map of file to the hash of its contents
+     */
+    public @NotNull Map<Path, String> getHashes() {
+        Map<Path, String> hashes = new TreeMap<>();
+        entries.forEach((path, entry) -> hashes.put(path, entry.hash));
+        return hashes;
+    }
+
+    private static @NotNull Entry readFile(@NotNull String rel, byte @NotNull [] bytes, @NotNull String hash) {
+        if (rel.endsWith(".class")) {
+            String className = rel.substring(0, rel.length() - ".class".length()).replace('/', '.');
+            return new Entry(hash, Collections.singletonMap(className, bytes), Collections.emptyMap());
+        }
+        return new Entry(hash, Collections.emptyMap(), Collections.singletonMap(rel, bytes));
+    }
+
+    private static @NotNull Entry readJar(byte @NotNull [] bytes, @NotNull String hash) throws IOException {
+        Map<String, byte[]> classes = new HashMap<>();
+        Map<String, byte[]> resources = new HashMap<>();
+        try (JarInputStream in = new JarInputStream(new ByteArrayInputStream(bytes))) {
+            JarEntry jarEntry;
+            while ((jarEntry = in.getNextJarEntry()) != null) {
+                if (jarEntry.isDirectory()) continue;
+                String name = jarEntry.getName();
+                if (name.endsWith(".class")) {
+                    if (name.equals("module-info.class") || name.startsWith("META-INF/")) continue;
+                    classes.put(name.substring(0, name.length() - ".class".length()).replace('/', '.'), readAll(in));
+                } else {
+                    resources.put(name, readAll(in));
+                }
+            }
+        }
+        return new Entry(hash, classes, resources);
+    }
+
+    private static byte @NotNull [] readAll(@NotNull InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+        return out.toByteArray();
+    }
+
+    private static final class Entry {
+        private final String hash;
+        private final Map<String, byte[]> classes;
+        private final Map<String, byte[]> resources;
+        private final long size;
+        private final long lastModified;
+
+        private Entry(@NotNull String hash, @NotNull Map<String, byte[]> classes, @NotNull Map<String, byte[]> resources) {
+            this(hash, classes, resources, -1, -1);
+        }
+
+        private Entry(@NotNull String hash, @NotNull Map<String, byte[]> classes, @NotNull Map<String, byte[]> resources, long size, long lastModified) {
+            this.hash = hash;
+            this.classes = classes;
+            this.resources = resources;
+            this.size = size;
+            this.lastModified = lastModified;
+        }
+
+        private @NotNull Entry withFileTime(long size, long lastModified) {
+            return new Entry(hash, classes, resources, size, lastModified);
+        }
+    }
+}
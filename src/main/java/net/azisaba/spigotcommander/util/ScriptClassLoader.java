@@ -0,0 +1,99 @@
+package net.azisaba.spigotcommander.util;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.net.URLConnection;
+import java.net.URLStreamHandler;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Class loader for the compiled scripts. Classes and resources are looked up from the in-memory maps first, and then
+ * from the URLs.
+ */
+public class ScriptClassLoader extends URLClassLoader {
+    static {
+        ClassLoader.registerAsParallelCapable();
+    }
+
+    private final Map<String, byte[]> classes;
+    private final Map<String, byte[]> resources;
+    private final URLStreamHandler handler = new URLStreamHandler() {
+        @Override
+        protected URLConnection openConnection(URL u) throws IOException {
+            byte[] bytes = getResourceBytes(u.getPath().substring(1));
+            if (bytes == null) throw new IOException("Resource not found: " + u);
+            return new URLConnection(u) {
+                @Override
+                public void connect() {
+                }
+
+                @Override
+                public InputStream getInputStream() {
+                    return new ByteArrayInputStream(bytes);
+                }
+            };
+        }
+    };
+
+    /**
+     * @param urls URLs to load classes and resources from
+     * @param classes map of binary class name to bytecode
+     * @param resources map of resource name to contents
+     * @param parent the parent class loader
+     */
+    public ScriptClassLoader(@NotNull URL[] urls, @NotNull Map<String, byte[]> classes, @NotNull Map<String, byte[]> resources, @NotNull ClassLoader parent) {
+        super(urls, parent);
+        this.classes = classes;
+        this.resources = resources;
+    }
+
+    @Override
+    protected Class<?> findClass(String name) throws ClassNotFoundException {
+        byte[] bytes = classes.get(name);
+        if (bytes != null) {
+            return defineClass(name, bytes, 0, bytes.length);
+        }
+        return super.findClass(name);
+    }
+
+    @Override
+    public @Nullable URL findResource(String name) {
+        if (getResourceBytes(name) != null) {
+            try {
+                return new URL("memory", null, -1, "/" + name, handler);
+            } catch (MalformedURLException e) {
+                throw new RuntimeException(e);
+            }
+        }
+        return super.findResource(name);
+    }
+
+    @Override
+    public Enumeration<URL> findResources(String name) throws IOException {
+        if (getResourceBytes(name) == null) return super.findResources(name);
+        List<URL> list = new ArrayList<>();
+        list.add(findResource(name));
+        list.addAll(Collections.list(super.findResources(name)));
+        return Collections.enumeration(list);
+    }
+
+    @Nullable
+    private byte[] getResourceBytes(@NotNull String name) {
+        byte[] bytes = resources.get(name);
+        if (bytes == null && name.endsWith(".class")) {
+            bytes = classes.get(name.substring(0, name.length() - 6).replace('/', '.'));
+        }
+        return bytes;
+    }
+}
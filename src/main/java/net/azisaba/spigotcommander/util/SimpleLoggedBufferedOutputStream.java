@@ -12,7 +12,7 @@ public class SimpleLoggedBufferedOutputStream extends LoggedBufferedOutputStream
     protected final Logger logger;
     protected final String name;
     protected final Level level;
-    private StringBuffer buf = new StringBuffer();
+    private final LineBuffer buf = new LineBuffer();
 
     public SimpleLoggedBufferedOutputStream(@NotNull String name, @NotNull Level level) {
         this(LoggerFactory.getLogger(name), name, level);
@@ -25,31 +25,18 @@ public class SimpleLoggedBufferedOutputStream extends LoggedBufferedOutputStream
     }
 
     @Override
-    protected @NotNull String getBuffer() {
-        return this.buf.toString();
+    protected @NotNull LineBuffer getBuffer() {
+        return buf;
     }
 
     @Override
-    protected void appendBuffer(@NotNull Object o) {
-        buf.append(o);
-    }
-
-    @Override
-    protected void setBuffer(@NotNull String buf) {
-        this.buf = new StringBuffer(buf);
-    }
-
-    @Override
-    protected void log(@NotNull String buf) {
+    protected void log(@NotNull String line) {
         if (level == Level.INFO) {
-//            logger.info("[{}]: {}", name, buf);
-            logger.info(buf);
+            logger.info(line);
         } else if (level == Level.WARN) {
-//            logger.warn("[{}]: {}", name, buf);
-            logger.warn(buf);
+            logger.warn(line);
         } else if (level == Level.ERROR) {
-//            logger.error("[{}]: {}", name, buf);
-            logger.error(buf);
+            logger.error(line);
         }
     }
 }
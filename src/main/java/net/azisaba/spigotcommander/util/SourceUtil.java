@@ -0,0 +1,39 @@
+package net.azisaba.spigotcommander.util;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.HashMap;
+import java.util.Map;
+
+public class SourceUtil {
+    /**
+     * Replaces (or adds) the package declaration of the source. Blank lines following the original declaration are
+     * kept on the same line as the new declaration, so line numbers in compiler diagnostics stay roughly the same.
+     * @param source the source code
+     * @param packageName the new package name
+     * @return rewritten source code
+     */
+    public static @NotNull String rewritePackage(@NotNull String source, @NotNull String packageName) {
+        StringBuilder stripped = new StringBuilder(3);
+        if (source.startsWith("package ")) {
+            source = source.substring(source.indexOf(';') + 1);
+            while (source.startsWith("\n")) {
+                source = source.substring(1);
+                stripped.append("\n");
+            }
+        }
+        return "package " + packageName + ";" + stripped + source;
+    }
+
+    /**
+     * Moves all scripts into the package.
+     * @param sources map of script name to source code
+     * @param packageName the new package name
+     * @return map of binary class name to rewritten source code, to be passed to {@code JavaCompiler.compileInMemory}
+     */
+    public static @NotNull Map<String, String> rewritePackages(@NotNull Map<String, String> sources, @NotNull String packageName) {
+        Map<String, String> rewritten = new HashMap<>();
+        sources.forEach((name, source) -> rewritten.put(packageName + "." + name, rewritePackage(source, packageName)));
+        return rewritten;
+    }
+}
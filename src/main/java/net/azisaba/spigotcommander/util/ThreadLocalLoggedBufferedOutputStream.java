@@ -5,27 +5,18 @@ import org.slf4j.LoggerFactory;
 import org.slf4j.event.Level;
 
 /**
- * Thread local instance of LoggedBufferedOutputStream. Internal buffer is wrapped with ThreadLocal.
+ * Thread local instance of LoggedBufferedOutputStream. Internal buffer is wrapped with ThreadLocal, so one instance can
+ * be shared by all compiler threads.
  */
 public class ThreadLocalLoggedBufferedOutputStream extends SimpleLoggedBufferedOutputStream {
-    private final ThreadLocal<StringBuffer> buf = ThreadLocal.withInitial(StringBuffer::new);
+    private final ThreadLocal<LineBuffer> buf = ThreadLocal.withInitial(LineBuffer::new);
 
     public ThreadLocalLoggedBufferedOutputStream(@NotNull String name, @NotNull Level level) {
         super(LoggerFactory.getLogger(name), name, level);
     }
 
     @Override
-    protected @NotNull String getBuffer() {
-        return this.buf.get().toString();
-    }
-
-    @Override
-    protected void appendBuffer(@NotNull Object o) {
-        this.buf.get().append(o);
-    }
-
-    @Override
-    protected void setBuffer(@NotNull String buf) {
-        this.buf.set(new StringBuffer(buf));
+    protected @NotNull LineBuffer getBuffer() {
+        return this.buf.get();
     }
 }
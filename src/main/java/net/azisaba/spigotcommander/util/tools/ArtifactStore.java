@@ -0,0 +1,231 @@
+package net.azisaba.spigotcommander.util.tools;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import net.azisaba.spigotcommander.util.HashUtil;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Directory of compiled scripts shared by several servers (e.g. on a shared mount). Bundles are addressed by a key
+ * computed from the contents of the sources and the classpath and from the JDK version, so servers with the same
+ * scripts and jars share a bundle regardless of where the files are or when they were modified.
+ * <p>
+ * A server about to compile takes a lock file for the key, so that the other servers wait for it to publish the
+ * bundle instead of compiling the same scripts at the same time. The holder touches the lock file while it compiles,
+ * and only a lock that has not been touched for a while is considered abandoned, however long the compilation takes.
+ * Bundles are published with an atomic move and are never modified afterwards.
+ */
+public class ArtifactStore {
+    private static final Logger LOGGER = LoggerFactory.getLogger("SpigotCommander");
+    private static final long POLL_INTERVAL_MILLIS = 200;
+    private static final long LOCK_REFRESH_MILLIS = 5000;
+    // a lock not touched for this long is taken over (the holder crashed or lost the mount)
+    private static final long LOCK_TIMEOUT_MILLIS = 30000;
+    private static final ScheduledExecutorService LOCK_REFRESHER = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder().setNameFormat("SpigotCommander Artifact Lock").setDaemon(true).build());
+    // lock path -> task touching it
+    private static final Map<Path, ScheduledFuture<?>> HELD_LOCKS = new ConcurrentHashMap<>();
+    // path -> hash of the contents, reused as long as the size and the modification time are unchanged
+    private static final Map<String, ContentHash> CONTENT_HASHES = new ConcurrentHashMap<>();
+    private final Path dir;
+    private final long waitMillis;
+
+    /**
+     * @param dir the directory to store the bundles in
+     * @param waitMillis how long to wait for another server compiling the same scripts
+     */
+    public ArtifactStore(@NotNull Path dir, long waitMillis) {
+        this.dir = dir;
+        this.waitMillis = waitMillis;
+    }
+
+    public @NotNull Path getDirectory() {
+        return dir;
+    }
+
+    /**
+     * Computes the key of the scripts from the source hashes, the contents of the current classpath entries and the
+     * JDK version, so the classpath must be set up beforehand.
+     * @param sourceHashes map of script name to the hash of its source
+     * @return hex encoded key
+     */
+    public static @NotNull String getKey(@NotNull Map<String, String> sourceHashes) throws IOException {
+        StringBuilder sb = new StringBuilder(ScriptBundle.FORMAT_VERSION).append('\n');
+        sb.append(System.getProperty("java.version", "")).append('\n');
+        // the paths differ between servers, so only the contents count
+        TreeSet<String> classpathHashes = new TreeSet<>();
+        for (String entry : JavaCompiler.classpath) {
+            classpathHashes.add(hashContents(Paths.get(entry)));
+        }
+        classpathHashes.forEach(hash -> sb.append(hash).append('\n'));
+        new TreeMap<>(sourceHashes).forEach((name, hash) -> sb.append(name).append('=').append(hash).append('\n'));
+        return HashUtil.sha256(sb.toString());
+    }
+
+    /**
+     * Reads the bundle for the key.
+     * @return the bundle, or null if it has not been published yet
+     */
+    public @Nullable ScriptBundle fetch(@NotNull String key) throws IOException {
+        Path path = getPath(key);
+        if (!Files.exists(path)) return null;
+        return ScriptBundle.read(path);
+    }
+
+    /**
+     * Takes the lock for compiling the scripts of the key, and keeps touching it until {@link #unlock(String)}. A lock
+     * that has not been touched for a while is considered abandoned and taken over.
+     * @return true if the lock was taken, false if another server holds it
+     */
+    public boolean tryLock(@NotNull String key) throws IOException {
+        Path lock = getLockPath(key);
+        Files.createDirectories(lock.getParent());
+        try {
+            Files.createFile(lock);
+        } catch (FileAlreadyExistsException e) {
+            try {
+                if (System.currentTimeMillis() - Files.getLastModifiedTime(lock).toMillis() < LOCK_TIMEOUT_MILLIS) return false;
+            } catch (IOException ignored) {
+                // released in the meantime
+            }
+            LOGGER.warn("Taking over abandoned lock {}", lock);
+            Files.deleteIfExists(lock);
+            try {
+                Files.createFile(lock);
+            } catch (FileAlreadyExistsException e1) {
+                return false;
+            }
+        }
+        ScheduledFuture<?> refresh = LOCK_REFRESHER.scheduleWithFixedDelay(() -> {
+            try {
+                Files.setLastModifiedTime(lock, FileTime.fromMillis(System.currentTimeMillis()));
+            } catch (IOException e) {
+                LOGGER.warn("Failed to refresh lock {}", lock, e);
+            }
+        }, LOCK_REFRESH_MILLIS, LOCK_REFRESH_MILLIS, TimeUnit.MILLISECONDS);
+        ScheduledFuture<?> previous = HELD_LOCKS.put(lock, refresh);
+        if (previous != null) previous.cancel(false);
+        return true;
+    }
+
+    public void unlock(@NotNull String key) {
+        Path lock = getLockPath(key);
+        ScheduledFuture<?> refresh = HELD_LOCKS.remove(lock);
+        if (refresh != null) refresh.cancel(false);
+        try {
+            Files.deleteIfExists(lock);
+        } catch (IOException e) {
+            LOGGER.warn("Failed to delete {}", lock, e);
+        }
+    }
+
+    /**
+     * Waits for the server holding the lock to publish the bundle for the key.
+     * @return the bundle, or null if it was not published within the wait time or the lock was released without
+     *         publishing it
+     */
+    public @Nullable ScriptBundle await(@NotNull String key) throws IOException {
+        LOGGER.info("Waiting for another server to compile the scripts ({})", key);
+        long deadline = System.currentTimeMillis() + waitMillis;
+        while (System.currentTimeMillis() < deadline) {
+            ScriptBundle bundle = fetch(key);
+            if (bundle != null) return bundle;
+            if (!Files.exists(getLockPath(key))) return fetch(key);
+            try {
+                Thread.sleep(POLL_INTERVAL_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return null;
+            }
+        }
+        return fetch(key);
+    }
+
+    /**
+     * Publishes the bundle for the key, unless it has already been published.
+     */
+    public void publish(@NotNull String key, @NotNull ScriptBundle bundle) throws IOException {
+        Path path = getPath(key);
+        if (Files.exists(path)) return;
+        bundle.write(path);
+        LOGGER.info("Published compiled scripts to {}", path);
+    }
+
+    private @NotNull Path getPath(@NotNull String key) {
+        return dir.resolve(key.substring(0, 2)).resolve(key + ".jar");
+    }
+
+    @NotNull Path getLockPath(@NotNull String key) {
+        return dir.resolve(key.substring(0, 2)).resolve(key + ".lock");
+    }
+
+    /**
+     * Hashes the contents of a file, or the relative paths and contents of the files in a directory.
+     */
+    private static @NotNull String hashContents(@NotNull Path path) throws IOException {
+        if (!Files.isDirectory(path)) return hashFile(path);
+        List<Path> files;
+        try (Stream<Path> stream = Files.walk(path)) {
+            files = stream.filter(Files::isRegularFile).sorted().collect(Collectors.toList());
+        }
+        StringBuilder sb = new StringBuilder();
+        for (Path file : files) {
+            sb.append(path.relativize(file).toString().replace(file.getFileSystem().getSeparator(), "/")).append('=').append(hashFile(file)).append('\n');
+        }
+        return HashUtil.sha256(sb.toString());
+    }
+
+    private static @NotNull String hashFile(@NotNull Path path) throws IOException {
+        if (!Files.exists(path)) return "missing";
+        String key = path.toAbsolutePath().toString();
+        long size = Files.size(path);
+        long lastModified = Files.getLastModifiedTime(path).toMillis();
+        ContentHash cached = CONTENT_HASHES.get(key);
+        if (cached != null && cached.size == size && cached.lastModified == lastModified) return cached.hash;
+        MessageDigest digest = HashUtil.newDigest();
+        byte[] buffer = new byte[65536];
+        try (InputStream in = Files.newInputStream(path)) {
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+            }
+        }
+        String hash = HashUtil.toHex(digest.digest());
+        CONTENT_HASHES.put(key, new ContentHash(size, lastModified, hash));
+        return hash;
+    }
+
+    private static final class ContentHash {
+        private final long size;
+        private final long lastModified;
+        private final String hash;
+
+        private ContentHash(long size, long lastModified, @NotNull String hash) {
+            this.size = size;
+            this.lastModified = lastModified;
+            this.hash = hash;
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package net.azisaba.spigotcommander.util.tools;
+
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * Maps packages to the classpath entries (jars or directories) containing them. The packages of each entry are
+ * cached until its size or modification time changes.
+ */
+public class ClasspathIndex {
+    private static final Logger LOGGER = LoggerFactory.getLogger("SpigotCommander");
+    private static final Pattern IMPORT_PATTERN = Pattern.compile("^\\s*import\\s+(?:static\\s+)?([\\w$.]+?)(?:\\s*\\.\\s*\\*)?\\s*;", Pattern.MULTILINE);
+    private static final List<String> PLATFORM_PREFIXES = Arrays.asList("java.", "javax.", "jdk.", "sun.", "com.sun.");
+    private static final Map<String, Entry> CACHE = new ConcurrentHashMap<>();
+
+    /**
+     * Builds a map of package name to the entries containing the package.
+     * @param entries paths of jars or directories
+     */
+    public static @NotNull Map<String, Set<String>> index(@NotNull Collection<String> entries) {
+        Map<String, Set<String>> index = new HashMap<>();
+        for (String entry : entries) {
+            for (String packageName : getPackages(entry)) {
+                index.computeIfAbsent(packageName, k -> new HashSet<>()).add(entry);
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Returns the entries providing the packages imported by the sources. Imports are matched to the longest known
+     * package, so nested classes and static imports resolve to the package of their outermost class.
+     * @param sources the source codes
+     * @param index the map returned by {@link #index(Collection)}
+     */
+    public static @NotNull Set<String> resolveImports(@NotNull Collection<String> sources, @NotNull Map<String, Set<String>> index) {
+        Set<String> result = new HashSet<>();
+        Set<String> unresolved = new TreeSet<>();
+        for (String source : sources) {
+            Matcher matcher = IMPORT_PATTERN.matcher(source);
+            while (matcher.find()) {
+                String name = matcher.group(1);
+                Set<String> entries = null;
+                while (entries == null && !name.isEmpty()) {
+                    entries = index.get(name);
+                    int dot = name.lastIndexOf('.');
+                    name = dot == -1 ? "" : name.substring(0, dot);
+                }
+                if (entries != null) {
+                    result.addAll(entries);
+                } else if (PLATFORM_PREFIXES.stream().noneMatch(matcher.group(1)::startsWith)) {
+                    unresolved.add(matcher.group(1));
+                }
+            }
+        }
+        if (!unresolved.isEmpty()) {
+            LOGGER.warn("Could not find the jar for these imports (add them to classpath-imports if needed): {}", unresolved);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the packages containing at least one class in the jar or directory.
+     */
+    public static @NotNull Set<String> getPackages(@NotNull String entry) {
+        File file = new File(entry);
+        long size = file.length();
+        long lastModified = file.lastModified();
+        Entry cached = CACHE.get(entry);
+        if (cached != null && cached.size == size && cached.lastModified == lastModified) {
+            return cached.packages;
+        }
+        Set<String> packages = new HashSet<>();
+        try {
+            if (file.isDirectory()) {
+                Path root = file.toPath();
+                try (Stream<Path> stream = Files.walk(root)) {
+                    stream.filter(path -> path.getFileName().toString().endsWith(".class"))
+                            .map(path -> root.relativize(path).getParent())
+                            .filter(Objects::nonNull)
+                            .forEach(path -> packages.add(path.toString().replace(File.separatorChar, '.')));
+                }
+            } else if (file.isFile()) {
+                try (JarFile jar = new JarFile(file)) {
+                    Enumeration<JarEntry> entries = jar.entries();
+                    while (entries.hasMoreElements()) {
+                        String name = entries.nextElement().getName();
+                        int slash = name.lastIndexOf('/');
+                        if (slash != -1 && name.endsWith(".class") && !name.startsWith("META-INF/")) {
+                            packages.add(name.substring(0, slash).replace('/', '.'));
+                        }
+                    }
+                }
+            }
+        } catch (IOException e) {
+            LOGGER.warn("Failed to index {}", entry, e);
+        }
+        Set<String> result = Collections.unmodifiableSet(packages);
+        CACHE.put(entry, new Entry(size, lastModified, result));
+        return result;
+    }
+
+    private static final class Entry {
+        private final long size;
+        private final long lastModified;
+        private final Set<String> packages;
+
+        private Entry(long size, long lastModified, @NotNull Set<String> packages) {
+            this.size = size;
+            this.lastModified = lastModified;
+            this.packages = packages;
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package net.azisaba.spigotcommander.util.tools;
+
+import org.jetbrains.annotations.NotNull;
+
+import javax.tools.StandardJavaFileManager;
+import javax.tools.StandardLocation;
+import javax.tools.ToolProvider;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * A compiler and a file manager with the classpath already set. The file manager keeps the classpath jars open and
+ * indexed, so reusing a context avoids opening and scanning them again for every compilation. A context must only
+ * be used by one thread at a time.
+ */
+public class CompilerContext implements Closeable {
+    private final javax.tools.JavaCompiler compiler;
+    private final StandardJavaFileManager fileManager;
+    private final Set<String> classpath;
+
+    public CompilerContext(@NotNull Set<String> classpath) throws IOException {
+        this.compiler = ToolProvider.getSystemJavaCompiler();
+        if (compiler == null) throw new RuntimeException("JavaCompiler is not available");
+        this.fileManager = compiler.getStandardFileManager(null, null, StandardCharsets.UTF_8);
+        this.classpath = Collections.unmodifiableSet(new HashSet<>(classpath));
+        if (!classpath.isEmpty()) {
+            fileManager.setLocation(StandardLocation.CLASS_PATH, classpath.stream().map(File::new).collect(Collectors.toList()));
+        }
+    }
+
+    public @NotNull javax.tools.JavaCompiler getCompiler() {
+        return compiler;
+    }
+
+    public @NotNull StandardJavaFileManager getFileManager() {
+        return fileManager;
+    }
+
+    /**
+     * @return the classpath this context was created with
+     */
+    public @NotNull Set<String> getClasspath() {
+        return classpath;
+    }
+
+    /**
+     * Clears the locations set for a single compilation, leaving the classpath intact.
+     */
+    public void reset() throws IOException {
+        fileManager.setLocation(StandardLocation.SOURCE_PATH, null);
+        fileManager.setLocation(StandardLocation.CLASS_OUTPUT, null);
+    }
+
+    @Override
+    public void close() throws IOException {
+        fileManager.close();
+    }
+}
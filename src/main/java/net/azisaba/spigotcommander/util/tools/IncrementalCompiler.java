@@ -0,0 +1,114 @@
+package net.azisaba.spigotcommander.util.tools;
+
+import net.azisaba.spigotcommander.util.HashUtil;
+import net.azisaba.spigotcommander.util.SourceUtil;
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Compiles scripts in memory and keeps the results, so that the next call only recompiles the scripts that have
+ * changed and the scripts that reference them. Everything is recompiled when the classpath changes.
+ * <p>
+ * Bytecode can only be reused if the package stays the same, so all generations compiled by an instance share
+ * its package name. Each generation still gets its own class loader.
+ */
+public class IncrementalCompiler {
+    private static final Logger LOGGER = LoggerFactory.getLogger("SpigotCommander");
+    private final String packageName;
+    private final Map<String, String> sourceHashes = new HashMap<>();
+    private final Map<String, Map<String, byte[]>> outputs = new HashMap<>();
+    private String classpathHash;
+
+    public IncrementalCompiler(@NotNull String packageName) {
+        this.packageName = packageName;
+    }
+
+    public @NotNull String getPackageName() {
+        return packageName;
+    }
+
+    /**
+     * Compiles the scripts, reusing the bytecode from the previous call for the scripts that did not change.
+     * @param sources map of script name (simple class name) to its original source code
+     * @param ignoreErrors if true, scripts that failed to compile are dropped
+     * @return map of binary class name to bytecode for all scripts
+     */
+    public @NotNull Map<String, byte[]> compile(@NotNull Map<String, String> sources, boolean ignoreErrors) throws IOException {
+        return compile(sources, ignoreErrors, () -> false);
+    }
+
+    /**
+     * Compiles the scripts, reusing the bytecode from the previous call for the scripts that did not change.
+     * @param sources map of script name (simple class name) to its original source code
+     * @param ignoreErrors if true, scripts that failed to compile are dropped
+     * @param cancelled checked before each compilation attempt, see
+     *                  {@link JavaCompiler#compileInMemory(Map, Map, Map, boolean, BooleanSupplier)}
+     * @return map of binary class name to bytecode for all scripts
+     */
+    public synchronized @NotNull Map<String, byte[]> compile(@NotNull Map<String, String> sources, boolean ignoreErrors, @NotNull BooleanSupplier cancelled) throws IOException {
+        String newClasspathHash = JavaCompiler.getClasspathHash();
+        if (!newClasspathHash.equals(classpathHash)) {
+            if (classpathHash != null) LOGGER.info("Classpath has changed, recompiling all scripts");
+            sourceHashes.clear();
+            outputs.clear();
+            classpathHash = newClasspathHash;
+        }
+        // find changed, added and removed scripts
+        Map<String, String> newHashes = new HashMap<>();
+        Set<String> changed = new HashSet<>();
+        sources.forEach((name, source) -> {
+            String hash = HashUtil.sha256(source);
+            newHashes.put(name, hash);
+            if (!hash.equals(sourceHashes.get(name))) changed.add(name);
+        });
+        for (String name : sourceHashes.keySet()) {
+            if (!sources.containsKey(name)) changed.add(name);
+        }
+        // find dependents of the changed scripts
+        Map<String, String> typeOwners = new HashMap<>();
+        outputs.forEach((name, classes) -> {
+            for (String className : classes.keySet()) {
+                String simpleName = className.substring(className.lastIndexOf('.') + 1);
+                if (simpleName.indexOf('$') == -1) typeOwners.put(simpleName, name);
+            }
+        });
+        for (String name : sources.keySet()) {
+            typeOwners.put(name, name);
+        }
+        Set<String> dirty = SourceDependencies.dependents(SourceDependencies.scan(sources, typeOwners), changed);
+        for (String name : dirty) {
+            sourceHashes.remove(name);
+            outputs.remove(name);
+        }
+        dirty.retainAll(sources.keySet());
+        if (!dirty.isEmpty()) {
+            Map<String, String> rewritten = new HashMap<>();
+            for (String name : dirty) {
+                rewritten.put(packageName + "." + name, SourceUtil.rewritePackage(sources.get(name), packageName));
+            }
+            Map<String, String> origins = new HashMap<>();
+            Map<String, byte[]> classes = JavaCompiler.compileInMemory(rewritten, flatten(), origins, ignoreErrors, cancelled);
+            classes.forEach((className, bytes) -> {
+                String origin = origins.get(className);
+                if (origin == null) return;
+                outputs.computeIfAbsent(origin.substring(packageName.length() + 1), k -> new HashMap<>()).put(className, bytes);
+            });
+            for (String name : dirty) {
+                if (outputs.containsKey(name)) sourceHashes.put(name, newHashes.get(name));
+            }
+        }
+        LOGGER.info("Recompiled {} of {} scripts", dirty.size(), sources.size());
+        return flatten();
+    }
+
+    private @NotNull Map<String, byte[]> flatten() {
+        Map<String, byte[]> map = new HashMap<>();
+        outputs.values().forEach(map::putAll);
+        return map;
+    }
+}
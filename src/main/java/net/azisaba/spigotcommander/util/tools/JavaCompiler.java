@@ -3,6 +3,8 @@ package net.azisaba.spigotcommander.util.tools;
 import com.google.common.base.Joiner;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import net.azisaba.spigotcommander.util.ClasspathUtil;
+import net.azisaba.spigotcommander.util.FileUtil;
+import net.azisaba.spigotcommander.util.HashUtil;
 import net.azisaba.spigotcommander.util.ThreadLocalLoggedBufferedOutputStream;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
@@ -10,47 +12,204 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.slf4j.event.Level;
 
-import javax.tools.ToolProvider;
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticListener;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.StandardLocation;
 import java.io.File;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.*;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BooleanSupplier;
+import java.util.function.ObjLongConsumer;
+import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 public class JavaCompiler {
     private static final Logger LOGGER = LoggerFactory.getLogger("SpigotCommander");
+    private static final OutputStream COMPILER_OUTPUT = new ThreadLocalLoggedBufferedOutputStream("SpigotCommander Live Compiler", Level.WARN);
     public static final Set<String> classpath = new HashSet<>();
+    // entries of the full classpath that the automatic classpath left out
+    private static final Set<String> FALLBACK_CLASSPATH = new HashSet<>();
+    private static final int MAX_CONTEXTS = Math.max(4, Runtime.getRuntime().availableProcessors());
+    private static final Deque<CompilerContext> CONTEXTS = new ConcurrentLinkedDeque<>();
+    private static final int MAX_WORKERS = Math.max(1, Math.min(MAX_CONTEXTS, Runtime.getRuntime().availableProcessors()));
+    // shared by all compilations; the threads time out when idle
+    private static final ThreadPoolExecutor WORKERS = new ThreadPoolExecutor(MAX_WORKERS, MAX_WORKERS, 60L, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+            new ThreadFactoryBuilder().setNameFormat("SpigotCommander Compiler Worker #%d").setDaemon(true).build());
+
+    static {
+        WORKERS.allowCoreThreadTimeOut(true);
+    }
+
+    private static final List<String> DEFAULT_IMPORTS = Arrays.asList(
+            "org.jetbrains.annotations.NotNull",
+            "javax.annotation.Nonnull",
+            "org.objectweb.asm.ClassVisitor",
+            "com.google.common.collect.ImmutableMap",
+            "it.unimi.dsi.fastutil.floats.Float2FloatOpenHashMap",
+            "org.bukkit.craftbukkit.libs.it.unimi.dsi.fastutil.floats.Float2FloatOpenHashMap",
+            "com.google.gson.Gson",
+            "org.apache.logging.log4j.Logger",
+            "org.slf4j.Logger",
+            "io.netty.buffer.ByteBuf",
+            "io.netty.channel.Channel",
+            "io.netty.handler.codec.AsciiHeadersEncoder",
+            "io.netty.util.AttributeKey",
+            "org.apache.commons.lang3.StringUtils",
+            "net.kyori.adventure.audience.Audience",
+            "net.md_5.bungee.api.chat.BaseComponent"
+    );
 
     public static void setupClasspath(@NotNull Collection<String> additionalImports) {
+        Set<String> previous = new HashSet<>(classpath);
         classpath.clear();
         addToClasspath("org.bukkit.Bukkit", true);
-        addToClasspath("org.jetbrains.annotations.NotNull", false);
-        addToClasspath("javax.annotation.Nonnull", false);
-        addToClasspath("org.objectweb.asm.ClassVisitor", false);
-        addToClasspath("com.google.common.collect.ImmutableMap", false);
-        addToClasspath("it.unimi.dsi.fastutil.floats.Float2FloatOpenHashMap", false);
-        addToClasspath("org.bukkit.craftbukkit.libs.it.unimi.dsi.fastutil.floats.Float2FloatOpenHashMap", false);
-        addToClasspath("com.google.gson.Gson", false);
-        addToClasspath("org.apache.logging.log4j.Logger", false);
-        addToClasspath("org.slf4j.Logger", false);
-        addToClasspath("io.netty.buffer.ByteBuf", false);
-        addToClasspath("io.netty.channel.Channel", false);
-        addToClasspath("io.netty.handler.codec.AsciiHeadersEncoder", false);
-        addToClasspath("io.netty.util.AttributeKey", false);
-        addToClasspath("org.apache.commons.lang3.StringUtils", false);
-        addToClasspath("net.kyori.adventure.audience.Audience", false);
-        addToClasspath("net.md_5.bungee.api.chat.BaseComponent", false);
+        for (String string : DEFAULT_IMPORTS) {
+            addToClasspath(string, false);
+        }
         for (String string : additionalImports) {
             addToClasspath(string, false);
         }
+        synchronized (FALLBACK_CLASSPATH) {
+            FALLBACK_CLASSPATH.clear();
+        }
+        onClasspathUpdated(previous);
+    }
+
+    /**
+     * Sets up the classpath with only the entries providing the packages imported by the sources (and the entries
+     * they require), plus Bukkit, the jars of the default imports (the libraries appearing in the signatures of the
+     * Bukkit API) and the classes in additionalImports. If a compilation fails with this classpath, it is retried
+     * once with the entries {@link #setupClasspath(Collection)} would add, plus all candidates.
+     * @param additionalImports classes whose jars are always added
+     * @param sources the source codes to scan for imports
+     * @param candidates paths of jars or directories to look for the imported packages in, each mapped to the
+     *                   entries it requires (e.g. the jars of the plugins a plugin depends on)
+     */
+    public static void setupClasspath(@NotNull Collection<String> additionalImports, @NotNull Collection<String> sources, @NotNull Map<String, ? extends Collection<String>> candidates) {
+        Set<String> resolved = ClasspathIndex.resolveImports(sources, ClasspathIndex.index(candidates.keySet()));
+        // supertypes and signatures of a plugin may come from the plugins it depends on
+        Deque<String> queue = new ArrayDeque<>(resolved);
+        while (!queue.isEmpty()) {
+            Collection<String> requires = candidates.get(queue.poll());
+            if (requires == null) continue;
+            for (String required : requires) {
+                if (resolved.add(required)) queue.add(required);
+            }
+        }
+        Set<String> previous = new HashSet<>(classpath);
+        classpath.clear();
+        addToClasspath("org.bukkit.Bukkit", true);
+        for (String string : DEFAULT_IMPORTS) {
+            addToClasspath(string, false);
+        }
+        for (String string : additionalImports) {
+            addToClasspath(string, false);
+        }
+        classpath.addAll(resolved);
+        synchronized (FALLBACK_CLASSPATH) {
+            FALLBACK_CLASSPATH.clear();
+            FALLBACK_CLASSPATH.addAll(candidates.keySet());
+            FALLBACK_CLASSPATH.removeAll(classpath);
+        }
+        onClasspathUpdated(previous);
+    }
+
+    /**
+     * Adds the entries left out by the automatic classpath, if any, so that a compilation that failed to resolve a
+     * symbol or package can be retried.
+     * @return true if the classpath was changed
+     */
+    private static boolean useFallbackClasspath() {
+        synchronized (FALLBACK_CLASSPATH) {
+            if (FALLBACK_CLASSPATH.isEmpty()) return false;
+            LOGGER.warn("Compilation failed with the automatic classpath, retrying with the full classpath");
+            Set<String> previous = new HashSet<>(classpath);
+            classpath.addAll(FALLBACK_CLASSPATH);
+            FALLBACK_CLASSPATH.clear();
+            onClasspathUpdated(previous);
+            return true;
+        }
+    }
+
+    /**
+     * Returns whether the error may be caused by a jar missing from the automatic classpath, rather than by a mistake
+     * in the script.
+     */
+    private static boolean isResolutionError(@NotNull Diagnostic<?> diagnostic) {
+        if (diagnostic.getKind() != Diagnostic.Kind.ERROR) return false;
+        String code = diagnostic.getCode();
+        return code != null && (code.startsWith("compiler.err.cant.resolve")
+                || code.equals("compiler.err.doesnt.exist")
+                // "class file for X not found", when a supertype is in a jar that was left out
+                || code.equals("compiler.err.cant.access"));
+    }
+
+    private static void onClasspathUpdated(@NotNull Set<String> previous) {
         LOGGER.info("Classpath for compiler: " + Joiner.on(File.pathSeparator).join(classpath));
+        if (!previous.equals(classpath)) {
+            // contexts are keyed by the classpath, so the old ones will never be used again
+            CompilerContext context;
+            while ((context = CONTEXTS.pollFirst()) != null) {
+                closeContext(context);
+            }
+        }
+    }
+
+    /**
+     * Takes a compiler context for the current classpath from the pool, or creates a new one. The context must be
+     * returned with {@link #releaseContext(CompilerContext)} after use.
+     */
+    @NotNull
+    public static CompilerContext acquireContext() throws IOException {
+        CompilerContext context;
+        while ((context = CONTEXTS.pollFirst()) != null) {
+            if (context.getClasspath().equals(classpath)) return context;
+            closeContext(context);
+        }
+        LOGGER.debug("Creating new compiler context");
+        return new CompilerContext(classpath);
+    }
+
+    public static void releaseContext(@NotNull CompilerContext context) {
+        try {
+            context.reset();
+        } catch (IOException | RuntimeException e) {
+            LOGGER.warn("Failed to reset compiler context", e);
+            closeContext(context);
+            return;
+        }
+        if (context.getClasspath().equals(classpath) && CONTEXTS.size() < MAX_CONTEXTS) {
+            CONTEXTS.offerFirst(context);
+        } else {
+            closeContext(context);
+        }
+    }
+
+    private static void closeContext(@NotNull CompilerContext context) {
+        try {
+            context.close();
+        } catch (IOException e) {
+            LOGGER.warn("Failed to close compiler context", e);
+        }
     }
 
     private static void addToClasspath(@NotNull String name, boolean required) {
@@ -74,23 +233,25 @@ public class JavaCompiler {
     public static File compile(@NotNull File root, @NotNull File file, @Nullable File dest) {
         if (!file.getName().endsWith(".java")) throw new IllegalArgumentException("Illegal file name (must ends with .java): " + file.getAbsolutePath());
         List<String> args = new ArrayList<>();
-        if (!classpath.isEmpty()) {
-            args.add("-cp");
-            args.add(Joiner.on(File.pathSeparator).join(classpath) + File.pathSeparator + root.getAbsolutePath());
-        }
-        if (dest != null) {
-            args.add("-d");
-            args.add(dest.getAbsolutePath());
-        }
         args.add("-proc:none");
         args.add("-source");
         args.add(getMajorJavaVersion());
-        args.add(file.getAbsolutePath());
-        OutputStream out = new ThreadLocalLoggedBufferedOutputStream("SpigotCommander Live Compiler", Level.WARN);
-        javax.tools.JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
-        if (compiler == null) throw new RuntimeException("JavaCompiler is not available");
-        int result = compiler.run(System.in, out, out, args.toArray(new String[0]));
-        if (result != 0) LOGGER.warn("Compiler (for file {}) exited with code: {}", file.getAbsolutePath(), result);
+        try {
+            CompilerContext context = acquireContext();
+            try (Writer writer = new OutputStreamWriter(COMPILER_OUTPUT, StandardCharsets.UTF_8)) {
+                StandardJavaFileManager fileManager = context.getFileManager();
+                fileManager.setLocation(StandardLocation.SOURCE_PATH, Collections.singletonList(root));
+                fileManager.setLocation(StandardLocation.CLASS_OUTPUT, dest == null ? null : Collections.singletonList(dest));
+                Iterable<? extends JavaFileObject> units = fileManager.getJavaFileObjects(file);
+                if (!context.getCompiler().getTask(writer, fileManager, null, args, null, units).call()) {
+                    LOGGER.warn("Compiler (for file {}) reported errors", file.getAbsolutePath());
+                }
+            } finally {
+                releaseContext(context);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
         return new File(file.getAbsolutePath().replaceAll("(.*)\\.java", "$1.class"));
     }
 
@@ -100,76 +261,110 @@ public class JavaCompiler {
      */
     @NotNull
     public static File compileAll(@NotNull File file, boolean ignoreErrors) throws IOException {
+        return compileAll(file, ignoreErrors, null);
+    }
+
+    /**
+     * Compiles all .java files in specified directory, or just compiles a single .java file. The sources are grouped
+     * into strongly connected components of their reference graph, and each component is compiled as one task on the
+     * worker pool once the components it references have been compiled. Independent components are compiled in
+     * parallel, and the classes of the components compiled earlier are read as classes instead of being parsed again.
+     * The directory stays on the source path, so a reference missed by {@link SourceDependencies} still resolves.
+     * @param file the file(s) to compile
+     * @param fileTimings if not null, called with the relative path of each file and the compile time (in nanoseconds)
+     *                    of the task it was compiled in
+     * @return the temporary directory containing the compiled classes, which the caller is responsible for deleting
+     */
+    @NotNull
+    public static File compileAll(@NotNull File file, boolean ignoreErrors, @Nullable ObjLongConsumer<String> fileTimings) throws IOException {
+        return compileAll(file, ignoreErrors, fileTimings, () -> false);
+    }
+
+    /**
+     * Compiles all .java files in specified directory, or just compiles a single .java file, see
+     * {@link #compileAll(File, boolean, ObjLongConsumer)}.
+     * @param cancelled checked before compiling each component; once it returns true, the remaining components are
+     *                  skipped and a {@link CancellationException} is thrown
+     */
+    @NotNull
+    public static File compileAll(@NotNull File file, boolean ignoreErrors, @Nullable ObjLongConsumer<String> fileTimings, @NotNull BooleanSupplier cancelled) throws IOException {
         if (!file.isDirectory() && !file.getName().endsWith(".java")) throw new IllegalArgumentException("Illegal file name (not a directory nor .java file): " + file.getAbsolutePath());
-        Path path = file.toPath();
+        Path root = file.isDirectory() ? file.toPath() : file.getAbsoluteFile().getParentFile().toPath();
         File tmp = Files.createTempDirectory("spigotcommander-live-compiler-").toFile();
-        tmp.deleteOnExit();
-        AtomicReference<Throwable> throwable = new AtomicReference<>();
-        int nThreads = Math.max(4, Runtime.getRuntime().availableProcessors());
-        ExecutorService compilerExecutor = Executors.newFixedThreadPool(nThreads, new ThreadFactoryBuilder().setNameFormat("SpigotCommander Compiler Worker #%d").build());
-        LOGGER.info("Compiling the source code using up to " + nThreads + " threads");
-        AtomicBoolean first = new AtomicBoolean(true);
+        // copy the resources and collect the sources, keyed by the relative path without .java
+        Map<String, File> files = new HashMap<>();
         try (Stream<Path> stream = Files.walk(file.toPath())) {
-            stream.map(Path::toFile)
-                    .forEach(f -> {
-                        if (throwable.get() != null) return;
-                        if (f.isDirectory()) {
-                            // if dir
-                            File target = new File(tmp, path.relativize(f.toPath()).toString());
-                            if (!target.mkdirs() && !target.getAbsolutePath().equals(tmp.getAbsolutePath())) {
-                                LOGGER.warn("Failed to create directory {} -> {}", f.getAbsolutePath(), target.getAbsolutePath());
-                            } else {
-                                LOGGER.debug("Created directory {} -> {}", f.getAbsolutePath(), target.getAbsolutePath());
-                            }
-                        } else {
-                            // if file
-                            if (f.getName().endsWith(".java")) {
-                                Runnable doCompile = () -> {
-                                    String rel = path.relativize(f.toPath()).toString().replaceAll("(.*)\\.java", "$1.class");
-                                    LOGGER.debug("Compiling: " + rel);
-                                    compile(file, f, tmp);
-                                    if (!new File(tmp, rel).exists()) {
-                                        if (!ignoreErrors) throwable.set(new RuntimeException("Compilation failed: " + rel));
-                                        LOGGER.error("Failed to compile: " + rel);
-                                        return;
-                                    }
-                                    LOGGER.info("Compiled {} -> {}", f.getAbsolutePath(), tmp.getAbsolutePath());
-                                };
-                                if (first.get()) { // to prevent race condition
-                                    first.set(false);
-                                    doCompile.run();
-                                } else {
-                                    compilerExecutor.submit(() -> {
-                                        if (throwable.get() != null) return;
-                                        try {
-                                            doCompile.run();
-                                        } catch (Exception throwable1) {
-                                            String rel = path.relativize(f.toPath()).toString().replaceAll("(.*)\\.java", "$1.class");
-                                            if (!ignoreErrors) throwable.set(new RuntimeException("Compilation failed: " + rel, throwable1));
-                                            LOGGER.error("Failed to compile: " + rel);
-                                        }
-                                    });
-                                }
-                            } else {
-                                File dest = new File(tmp, path.relativize(f.toPath()).toString());
-                                try {
-                                    Files.copy(f.toPath(), dest.toPath());
-                                    LOGGER.debug("Copied {} -> {}", f.getAbsolutePath(), dest.getAbsolutePath());
-                                } catch (IOException ex) {
-                                    LOGGER.warn("Failed to copy {} -> {}", f.getAbsolutePath(), dest.getAbsolutePath(), ex);
-                                }
-                            }
-                        }
-                    });
-        }
-        compilerExecutor.shutdown();
-        try {
-            if (!compilerExecutor.awaitTermination(5L, TimeUnit.MINUTES)) {
-                LOGGER.warn("Timed out compilation. Some files may be missing.");
+            for (Path p : (Iterable<Path>) stream::iterator) {
+                File f = p.toFile();
+                String rel = root.relativize(p).toString();
+                if (f.isDirectory()) {
+                    File target = new File(tmp, rel);
+                    if (!target.mkdirs() && !target.getAbsolutePath().equals(tmp.getAbsolutePath())) {
+                        LOGGER.warn("Failed to create directory {} -> {}", f.getAbsolutePath(), target.getAbsolutePath());
+                    } else {
+                        LOGGER.debug("Created directory {} -> {}", f.getAbsolutePath(), target.getAbsolutePath());
+                    }
+                } else if (f.getName().endsWith(".java")) {
+                    files.put(rel.substring(0, rel.length() - ".java".length()).replace(File.separatorChar, '/'), f);
+                } else {
+                    File dest = new File(tmp, rel);
+                    try {
+                        Files.copy(p, dest.toPath());
+                        LOGGER.debug("Copied {} -> {}", f.getAbsolutePath(), dest.getAbsolutePath());
+                    } catch (IOException ex) {
+                        LOGGER.warn("Failed to copy {} -> {}", f.getAbsolutePath(), dest.getAbsolutePath(), ex);
+                    }
+                }
             }
+        }
+        Map<String, String> sources = new HashMap<>();
+        for (Map.Entry<String, File> entry : files.entrySet()) {
+            sources.put(entry.getKey(), FileUtil.readString(entry.getValue().toPath()));
+        }
+        Map<String, Set<String>> graph = SourceDependencies.scan(sources, SourceDependencies.typeOwners(sources));
+        List<Set<String>> components = SourceDependencies.components(graph);
+        LOGGER.info("Compiling {} files in {} tasks using up to {} threads", files.size(), components.size(), MAX_WORKERS);
+
+        // schedule each component after the components it references
+        Map<String, byte[]> compiled = new ConcurrentHashMap<>();
+        AtomicReference<Throwable> throwable = new AtomicReference<>();
+        // set if a component failed to resolve a symbol or package, in which case the fallback classpath is tried
+        AtomicBoolean unresolved = new AtomicBoolean();
+        Map<String, CompletableFuture<Void>> scheduled = new HashMap<>();
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        for (Set<String> component : components) {
+            Set<CompletableFuture<Void>> dependencies = new HashSet<>();
+            for (String script : component) {
+                for (String reference : graph.get(script)) {
+                    // components come after the ones they reference, but a reference that is not scheduled yet is
+                    // left to the source path rather than waited for
+                    CompletableFuture<Void> dependency = scheduled.get(reference);
+                    if (!component.contains(reference) && dependency != null) dependencies.add(dependency);
+                }
+            }
+            List<File> units = component.stream().sorted().map(files::get).collect(Collectors.toList());
+            CompletableFuture<Void> future = CompletableFuture.allOf(dependencies.toArray(new CompletableFuture[0]))
+                    .thenRunAsync(() -> compileComponent(root, units, tmp, compiled, ignoreErrors, fileTimings, throwable, unresolved, cancelled), WORKERS);
+            component.forEach(script -> scheduled.put(script, future));
+            futures.add(future);
+        }
+        try {
+            CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).get(5L, TimeUnit.MINUTES);
+        } catch (TimeoutException e) {
+            LOGGER.warn("Timed out compilation. Some files may be missing.");
+        } catch (ExecutionException e) {
+            throwable.compareAndSet(null, e.getCause());
         } catch (InterruptedException e) {
             Thread.currentThread().interrupt();
         }
+        if (throwable.get() instanceof CancellationException) {
+            FileUtil.deleteRecursively(tmp.toPath());
+            throw (CancellationException) throwable.get();
+        }
+        if (unresolved.get() && useFallbackClasspath()) {
+            FileUtil.deleteRecursively(tmp.toPath());
+            return compileAll(file, ignoreErrors, fileTimings, cancelled);
+        }
         if (throwable.get() != null) {
             if (throwable.get() instanceof RuntimeException) throw (RuntimeException) throwable.get();
             throw new RuntimeException(throwable.get());
@@ -177,8 +372,166 @@ public class JavaCompiler {
         return tmp;
     }
 
+    /**
+     * Compiles the files in a single compilation task, and writes the classes into the output directory.
+     * @param compiled the classes compiled so far, which the files may reference; the new classes are added to it
+     */
+    private static void compileComponent(@NotNull Path root, @NotNull List<File> units, @NotNull File output, @NotNull Map<String, byte[]> compiled,
+                                         boolean ignoreErrors, @Nullable ObjLongConsumer<String> fileTimings, @NotNull AtomicReference<Throwable> throwable,
+                                         @NotNull AtomicBoolean unresolved, @NotNull BooleanSupplier cancelled) {
+        if (throwable.get() != null) return;
+        if (cancelled.getAsBoolean()) {
+            throwable.compareAndSet(null, new CancellationException("Compilation cancelled"));
+            return;
+        }
+        List<String> rels = units.stream().map(f -> root.relativize(f.toPath()).toString()).collect(Collectors.toList());
+        LOGGER.debug("Compiling: " + rels);
+        List<String> args = new ArrayList<>();
+        args.add("-proc:none");
+        args.add("-source");
+        args.add(getMajorJavaVersion());
+        // sources referenced through an edge the scan missed are read from the source path, but only compiled by
+        // their own component
+        args.add("-implicit:none");
+        long start = System.nanoTime();
+        Map<String, byte[]> classes = new HashMap<>();
+        DiagnosticListener<JavaFileObject> diagnosticListener = diagnostic -> {
+            if (isResolutionError(diagnostic)) unresolved.set(true);
+            LOGGER.warn(diagnostic.toString());
+        };
+        boolean success;
+        try {
+            CompilerContext context = acquireContext();
+            try (Writer writer = new OutputStreamWriter(COMPILER_OUTPUT, StandardCharsets.UTF_8);
+                 MemoryFileManager fileManager = new MemoryFileManager(context.getFileManager(), classes, compiled, null)) {
+                context.getFileManager().setLocation(StandardLocation.SOURCE_PATH, Collections.singletonList(root.toFile()));
+                Iterable<? extends JavaFileObject> objects = context.getFileManager().getJavaFileObjectsFromFiles(units);
+                success = context.getCompiler().getTask(writer, fileManager, diagnosticListener, args, null, objects).call();
+            } finally {
+                releaseContext(context);
+            }
+            for (Map.Entry<String, byte[]> entry : classes.entrySet()) {
+                Path target = output.toPath().resolve(entry.getKey().replace('.', '/') + ".class");
+                Files.createDirectories(target.getParent());
+                Files.write(target, entry.getValue());
+            }
+            compiled.putAll(classes);
+        } catch (IOException | RuntimeException e) {
+            LOGGER.error("Failed to compile: " + rels, e);
+            success = false;
+        }
+        if (fileTimings != null) {
+            long nanos = System.nanoTime() - start;
+            rels.forEach(rel -> fileTimings.accept(rel, nanos));
+        }
+        if (!success) {
+            if (!ignoreErrors) throwable.compareAndSet(null, new RuntimeException("Compilation failed: " + rels));
+            LOGGER.error("Failed to compile: " + rels);
+            return;
+        }
+        LOGGER.info("Compiled {} -> {}", rels, output.getAbsolutePath());
+    }
+
+    /**
+     * Compiles the sources in a single compilation task without touching the file system.
+     * @param sources map of binary class name to source code
+     * @param ignoreErrors if true, sources that failed to compile are dropped and the rest are compiled again
+     * @return map of binary class name to bytecode, including nested and anonymous classes
+     */
+    @NotNull
+    public static Map<String, byte[]> compileInMemory(@NotNull Map<String, String> sources, boolean ignoreErrors) throws IOException {
+        return compileInMemory(sources, Collections.emptyMap(), null, ignoreErrors);
+    }
+
+    /**
+     * Compiles the sources in a single compilation task without touching the file system.
+     * @param sources map of binary class name to source code
+     * @param provided already compiled classes that the sources may reference
+     * @param origins if not null, filled with the binary name of each compiled class to the name of its source
+     * @param ignoreErrors if true, sources that failed to compile are dropped and the rest are compiled again
+     * @return map of binary class name to bytecode, including nested and anonymous classes
+     */
+    @NotNull
+    public static Map<String, byte[]> compileInMemory(@NotNull Map<String, String> sources, @NotNull Map<String, byte[]> provided, @Nullable Map<String, String> origins, boolean ignoreErrors) throws IOException {
+        return compileInMemory(sources, provided, origins, ignoreErrors, () -> false);
+    }
+
+    /**
+     * Compiles the sources in a single compilation task without touching the file system, see
+     * {@link #compileInMemory(Map, Map, Map, boolean)}.
+     * @param cancelled checked before each compilation attempt; once it returns true, a {@link CancellationException}
+     *                  is thrown instead of compiling again
+     */
+    @NotNull
+    public static Map<String, byte[]> compileInMemory(@NotNull Map<String, String> sources, @NotNull Map<String, byte[]> provided, @Nullable Map<String, String> origins, boolean ignoreErrors,
+                                                      @NotNull BooleanSupplier cancelled) throws IOException {
+        List<String> args = new ArrayList<>();
+        args.add("-proc:none");
+        args.add("-source");
+        args.add(getMajorJavaVersion());
+        Map<String, String> remaining = new HashMap<>(sources);
+        while (!remaining.isEmpty()) {
+            if (cancelled.getAsBoolean()) throw new CancellationException("Compilation cancelled");
+            Map<String, byte[]> classes = new HashMap<>();
+            Set<String> failed = new HashSet<>();
+            AtomicBoolean unresolved = new AtomicBoolean();
+            if (origins != null) origins.clear();
+            DiagnosticListener<JavaFileObject> diagnosticListener = diagnostic -> {
+                if (diagnostic.getKind() == Diagnostic.Kind.ERROR && diagnostic.getSource() instanceof MemorySourceFile) {
+                    failed.add(((MemorySourceFile) diagnostic.getSource()).getClassName());
+                }
+                if (isResolutionError(diagnostic)) unresolved.set(true);
+                LOGGER.warn(diagnostic.toString());
+            };
+            List<MemorySourceFile> units = remaining.entrySet()
+                    .stream()
+                    .map(entry -> new MemorySourceFile(entry.getKey(), entry.getValue()))
+                    .collect(Collectors.toList());
+            CompilerContext context = acquireContext();
+            try (Writer writer = new OutputStreamWriter(COMPILER_OUTPUT, StandardCharsets.UTF_8);
+                 MemoryFileManager fileManager = new MemoryFileManager(context.getFileManager(), classes, provided, origins)) {
+                if (context.getCompiler().getTask(writer, fileManager, diagnosticListener, args, null, units).call()) {
+                    LOGGER.info("Compiled {} files into {} classes", remaining.size(), classes.size());
+                    return classes;
+                }
+            } finally {
+                releaseContext(context);
+            }
+            // other errors are mistakes in the scripts, which the full classpath would not fix
+            if (unresolved.get() && useFallbackClasspath()) continue;
+            if (!ignoreErrors || failed.isEmpty()) throw new RuntimeException("Compilation failed: " + (failed.isEmpty() ? remaining.keySet() : failed));
+            for (String name : failed) {
+                LOGGER.error("Failed to compile: " + name);
+                remaining.remove(name);
+            }
+        }
+        return Collections.emptyMap();
+    }
+
+    /**
+     * Returns a hash of the current classpath entries, their sizes and modification times, and the running JDK.
+     * @return hex encoded hash
+     */
+    public static @NotNull String getClasspathHash() {
+        StringBuilder sb = new StringBuilder(System.getProperty("java.version", "")).append('\n');
+        for (String entry : new TreeSet<>(classpath)) {
+            File file = new File(entry);
+            sb.append(entry).append('\0').append(file.length()).append('\0').append(file.lastModified()).append('\n');
+        }
+        return HashUtil.sha256(sb.toString());
+    }
+
     public static @NotNull String getMajorJavaVersion() {
-        String version = System.getProperty("java.version", "8");
-        return version.substring(0, version.indexOf('.'));
+        return getMajorJavaVersion(System.getProperty("java.version", "8"));
+    }
+
+    /**
+     * Returns the major version of a java.version string, e.g. 8 for 1.8.0_292 and 17 for 17.0.2 or 17-ea.
+     */
+    public static @NotNull String getMajorJavaVersion(@NotNull String version) {
+        if (version.startsWith("1.")) version = version.substring(2);
+        int end = 0;
+        while (end < version.length() && Character.isDigit(version.charAt(end))) end++;
+        return end == 0 ? "8" : version.substring(0, end);
     }
 }
@@ -0,0 +1,51 @@
+package net.azisaba.spigotcommander.util.tools;
+
+import org.jetbrains.annotations.NotNull;
+
+import javax.tools.SimpleJavaFileObject;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileNotFoundException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.util.Map;
+
+/**
+ * A .class file held in memory. The compiler reads the bytecode from the map, and the bytecode written by the compiler
+ * is stored into the map when the stream is closed.
+ */
+public class MemoryClassFile extends SimpleJavaFileObject {
+    private final String className;
+    private final Map<String, byte[]> classes;
+
+    public MemoryClassFile(@NotNull String className, @NotNull Map<String, byte[]> classes) {
+        super(URI.create("bytes:///" + className.replace('.', '/') + Kind.CLASS.extension), Kind.CLASS);
+        this.className = className;
+        this.classes = classes;
+    }
+
+    /**
+     * @return the binary name of the class
+     */
+    public @NotNull String getClassName() {
+        return className;
+    }
+
+    @Override
+    public InputStream openInputStream() throws FileNotFoundException {
+        byte[] bytes = classes.get(className);
+        if (bytes == null) throw new FileNotFoundException(toUri().toString());
+        return new ByteArrayInputStream(bytes);
+    }
+
+    @Override
+    public OutputStream openOutputStream() {
+        return new ByteArrayOutputStream() {
+            @Override
+            public void close() {
+                classes.put(className, toByteArray());
+            }
+        };
+    }
+}
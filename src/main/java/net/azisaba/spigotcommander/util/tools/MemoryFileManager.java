@@ -0,0 +1,106 @@
+package net.azisaba.spigotcommander.util.tools;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import javax.tools.FileObject;
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.StandardLocation;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * File manager that captures the compiler output into a map instead of writing .class files. Classes compiled
+ * earlier can be handed back to the compiler as if they were on the classpath, hiding their sources on the source path.
+ * Closing this file manager does not
+ * close the delegate, so the delegate can be reused.
+ */
+public class MemoryFileManager extends ForwardingJavaFileManager<StandardJavaFileManager> {
+    private final Map<String, byte[]> classes;
+    private final Map<String, byte[]> provided;
+    private final Map<String, String> origins;
+
+    public MemoryFileManager(@NotNull StandardJavaFileManager fileManager, @NotNull Map<String, byte[]> classes) {
+        this(fileManager, classes, Collections.emptyMap(), null);
+    }
+
+    /**
+     * @param fileManager the file manager to delegate to
+     * @param classes the map to store the compiled classes into
+     * @param provided already compiled classes to expose on the classpath
+     * @param origins if not null, filled with the binary name of each compiled class to the name of its source
+     */
+    public MemoryFileManager(@NotNull StandardJavaFileManager fileManager, @NotNull Map<String, byte[]> classes, @NotNull Map<String, byte[]> provided, @Nullable Map<String, String> origins) {
+        super(fileManager);
+        this.classes = classes;
+        this.provided = provided;
+        this.origins = origins;
+    }
+
+    @Override
+    public JavaFileObject getJavaFileForOutput(Location location, String className, JavaFileObject.Kind kind, FileObject sibling) throws IOException {
+        if (kind == JavaFileObject.Kind.CLASS) {
+            if (origins != null && sibling instanceof MemorySourceFile) {
+                origins.put(className, ((MemorySourceFile) sibling).getClassName());
+            }
+            return new MemoryClassFile(className, classes);
+        }
+        return super.getJavaFileForOutput(location, className, kind, sibling);
+    }
+
+    @Override
+    public Iterable<JavaFileObject> list(Location location, String packageName, Set<JavaFileObject.Kind> kinds, boolean recurse) throws IOException {
+        Iterable<JavaFileObject> list = super.list(location, packageName, kinds, recurse);
+        if (location == StandardLocation.SOURCE_PATH && !provided.isEmpty()) {
+            // provided classes take precedence over their sources, which would otherwise be parsed again
+            List<JavaFileObject> result = new ArrayList<>();
+            for (JavaFileObject file : list) {
+                if (file.getKind() != JavaFileObject.Kind.SOURCE || !provided.containsKey(inferBinaryName(location, file))) {
+                    result.add(file);
+                }
+            }
+            return result;
+        }
+        if (location != StandardLocation.CLASS_PATH || !kinds.contains(JavaFileObject.Kind.CLASS) || provided.isEmpty()) {
+            return list;
+        }
+        List<JavaFileObject> result = new ArrayList<>();
+        for (String className : provided.keySet()) {
+            int index = className.lastIndexOf('.');
+            String classPackage = index == -1 ? "" : className.substring(0, index);
+            if (classPackage.equals(packageName) || (recurse && classPackage.startsWith(packageName + "."))) {
+                result.add(new MemoryClassFile(className, provided));
+            }
+        }
+        list.forEach(result::add);
+        return result;
+    }
+
+    @Override
+    public String inferBinaryName(Location location, JavaFileObject file) {
+        if (file instanceof MemoryClassFile) {
+            return ((MemoryClassFile) file).getClassName();
+        }
+        return super.inferBinaryName(location, file);
+    }
+
+    @Override
+    public void close() throws IOException {
+        flush();
+    }
+
+    @Override
+    public boolean isSameFile(FileObject a, FileObject b) {
+        // the standard file manager rejects file objects it did not create
+        if (a instanceof MemorySourceFile || a instanceof MemoryClassFile || b instanceof MemorySourceFile || b instanceof MemoryClassFile) {
+            return a.equals(b);
+        }
+        return super.isSameFile(a, b);
+    }
+}
@@ -0,0 +1,32 @@
+package net.azisaba.spigotcommander.util.tools;
+
+import org.jetbrains.annotations.NotNull;
+
+import javax.tools.SimpleJavaFileObject;
+import java.net.URI;
+
+/**
+ * A .java source held in memory.
+ */
+public class MemorySourceFile extends SimpleJavaFileObject {
+    private final String className;
+    private final String source;
+
+    public MemorySourceFile(@NotNull String className, @NotNull String source) {
+        super(URI.create("string:///" + className.replace('.', '/') + Kind.SOURCE.extension), Kind.SOURCE);
+        this.className = className;
+        this.source = source;
+    }
+
+    /**
+     * @return the binary name of the top level class declared in this source
+     */
+    public @NotNull String getClassName() {
+        return className;
+    }
+
+    @Override
+    public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+        return source;
+    }
+}
@@ -0,0 +1,160 @@
+package net.azisaba.spigotcommander.util.tools;
+
+import net.azisaba.spigotcommander.util.FileUtil;
+import net.azisaba.spigotcommander.util.ScriptClassLoader;
+import net.azisaba.spigotcommander.util.SourceUtil;
+import org.bukkit.command.CommandExecutor;
+import org.bukkit.configuration.file.YamlConfiguration;
+import org.bukkit.event.Listener;
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.stream.Stream;
+
+/**
+ * Compiles the scripts ahead of time into a bundle the plugin can load without a JDK (see compiler.bundle in the
+ * config). The scripts are rewritten and compiled in the same way as the in-memory reload, and the listener and
+ * command classes named in the config are checked to exist and to implement Listener and CommandExecutor.
+ * <p>
+ * Usage: {@code java -cp <plugin jar>:<API jars> net.azisaba.spigotcommander.util.tools.Precompiler
+ * --classes <dir> --config <config.yml> --classpath <API jars> --output <bundle.jar>}
+ * <p>
+ * Exits with 1 if any script fails to compile or the config names a missing or wrong class, and with 2 on invalid
+ * arguments.
+ */
+public final class Precompiler {
+    private static final Logger LOGGER = LoggerFactory.getLogger("SpigotCommander");
+    private static final String USAGE = "Usage: Precompiler --classes <dir> --config <config.yml> --classpath <jars separated by " + File.pathSeparator + "> --output <bundle.jar>";
+
+    private Precompiler() {
+    }
+
+    public static void main(String[] args) {
+        int status;
+        try {
+            status = run(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println(USAGE);
+            status = 2;
+        } catch (IOException | RuntimeException e) {
+            LOGGER.error("Failed to precompile the scripts", e);
+            status = 1;
+        }
+        System.exit(status);
+    }
+
+    /**
+     * @return the exit status
+     */
+    public static int run(@NotNull String[] args) throws IOException {
+        Map<String, String> options = parseOptions(args);
+        Path classesDir = Paths.get(require(options, "classes"));
+        Path configFile = Paths.get(require(options, "config"));
+        Path output = Paths.get(require(options, "output"));
+        String classpath = options.getOrDefault("classpath", "");
+
+        Map<String, String> sources = readSources(classesDir);
+        JavaCompiler.classpath.clear();
+        for (String entry : classpath.split(File.pathSeparator)) {
+            if (!entry.isEmpty()) JavaCompiler.classpath.add(new File(entry).getAbsolutePath());
+        }
+        Map<String, String> sourceHashes = ScriptBundle.hashSources(sources);
+        // derived from the contents, so the same inputs always produce the same bundle
+        String fingerprint = ArtifactStore.getKey(sourceHashes);
+        String packageName = "net.azisaba.spigotcommander.generated$" + fingerprint.substring(0, 16);
+        Map<String, byte[]> classes;
+        try {
+            classes = JavaCompiler.compileInMemory(SourceUtil.rewritePackages(sources, packageName), false);
+        } catch (RuntimeException e) {
+            LOGGER.error(e.getMessage());
+            return 1;
+        }
+
+        ScriptRegistry registry = ScriptRegistry.fromConfig(YamlConfiguration.loadConfiguration(configFile.toFile()), packageName);
+        if (!check(registry, classes)) return 1;
+
+        ScriptBundle bundle = new ScriptBundle(packageName, fingerprint, sourceHashes, classes, registry);
+        bundle.write(output);
+        LOGGER.info("Wrote {} classes of {} scripts ({} listeners, {} commands) to {}",
+                classes.size(), sources.size(), registry.getListeners().size(), registry.getCommands().size(), output);
+        return 0;
+    }
+
+    /**
+     * Checks that the classes named in the registry exist in the bundle and implement the right interfaces. Classes
+     * outside the package of the scripts (precompiled ones) are not checked.
+     * @return true if there are no problems
+     */
+    private static boolean check(@NotNull ScriptRegistry registry, @NotNull Map<String, byte[]> classes) throws IOException {
+        boolean ok = true;
+        try (ScriptClassLoader classLoader = new ScriptClassLoader(new URL[0], classes, Collections.emptyMap(), Precompiler.class.getClassLoader())) {
+            for (String className : registry.getListeners()) {
+                ok &= check(classLoader, classes, className, Listener.class, "listener");
+            }
+            for (Map.Entry<String, String> entry : registry.getCommands().entrySet()) {
+                ok &= check(classLoader, classes, entry.getValue(), CommandExecutor.class, "command " + entry.getKey());
+            }
+        }
+        return ok;
+    }
+
+    private static boolean check(@NotNull ClassLoader classLoader, @NotNull Map<String, byte[]> classes, @NotNull String className, @NotNull Class<?> type, @NotNull String usage) {
+        if (!classes.containsKey(className)) {
+            if (className.startsWith("net.azisaba.spigotcommander.generated$")) {
+                LOGGER.error("Class of {} does not exist: {}", usage, className);
+                return false;
+            }
+            LOGGER.warn("Class of {} is not in the classes directory, make sure it is in the compiled directory: {}", usage, className);
+            return true;
+        }
+        try {
+            Class<?> clazz = Class.forName(className, false, classLoader);
+            if (!type.isAssignableFrom(clazz)) {
+                LOGGER.error("Class of {} does not implement {}: {}", usage, type.getSimpleName(), className);
+                return false;
+            }
+            return true;
+        } catch (ClassNotFoundException | LinkageError e) {
+            LOGGER.error("Failed to load class of {}: {}", usage, className, e);
+            return false;
+        }
+    }
+
+    private static @NotNull Map<String, String> readSources(@NotNull Path dir) throws IOException {
+        if (!Files.isDirectory(dir)) throw new IllegalArgumentException("Not a directory: " + dir);
+        Map<String, String> sources = new HashMap<>();
+        try (Stream<Path> stream = Files.list(dir)) {
+            for (Path path : (Iterable<Path>) stream::iterator) {
+                String fileName = path.getFileName().toString();
+                if (fileName.endsWith(".java") && !Files.isDirectory(path)) {
+                    sources.put(fileName.substring(0, fileName.length() - ".java".length()), FileUtil.readString(path));
+                }
+            }
+        }
+        return sources;
+    }
+
+    private static @NotNull Map<String, String> parseOptions(@NotNull String[] args) {
+        Map<String, String> options = new HashMap<>();
+        for (int i = 0; i < args.length; i++) {
+            if (!args[i].startsWith("--") || i + 1 >= args.length) throw new IllegalArgumentException("Invalid argument: " + args[i]);
+            options.put(args[i].substring(2), args[++i]);
+        }
+        return options;
+    }
+
+    private static @NotNull String require(@NotNull Map<String, String> options, @NotNull String name) {
+        String value = options.get(name);
+        if (value == null) throw new IllegalArgumentException("Missing option: --" + name);
+        return value;
+    }
+}
@@ -0,0 +1,232 @@
+package net.azisaba.spigotcommander.util.tools;
+
+import net.azisaba.spigotcommander.util.HashUtil;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarInputStream;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+
+/**
+ * Compiled scripts together with the information needed to tell whether they are still up to date. Stored as a jar
+ * whose manifest holds the package name, the fingerprint, the JDK version, the hash of each source and, for bundles
+ * built ahead of time, the registry of listeners and commands the bundle was checked against.
+ */
+public class ScriptBundle {
+    public static final String FORMAT_VERSION = "1";
+    private static final Attributes.Name FORMAT_VERSION_NAME = new Attributes.Name("SpigotCommander-Bundle-Version");
+    private static final Attributes.Name PACKAGE_NAME = new Attributes.Name("SpigotCommander-Package");
+    private static final Attributes.Name FINGERPRINT_NAME = new Attributes.Name("SpigotCommander-Fingerprint");
+    private static final Attributes.Name JAVA_VERSION_NAME = new Attributes.Name("SpigotCommander-Java-Version");
+    private static final Attributes.Name SOURCE_HASH_NAME = new Attributes.Name("SHA-256-Digest");
+    private static final Attributes.Name LISTENERS_NAME = new Attributes.Name("SpigotCommander-Listeners");
+    private static final Attributes.Name CLASS_NAME = new Attributes.Name("SpigotCommander-Class");
+    private static final String SOURCE_PREFIX = "sources/";
+    private static final String COMMAND_PREFIX = "commands/";
+
+    private final String packageName;
+    private final String fingerprint;
+    private final String javaVersion;
+    private final Map<String, String> sourceHashes;
+    private final Map<String, byte[]> classes;
+    private final ScriptRegistry registry;
+
+    public ScriptBundle(@NotNull String packageName, @NotNull String fingerprint, @NotNull Map<String, String> sourceHashes, @NotNull Map<String, byte[]> classes) {
+        this(packageName, fingerprint, sourceHashes, classes, ScriptRegistry.EMPTY);
+    }
+
+    public ScriptBundle(@NotNull String packageName, @NotNull String fingerprint, @NotNull Map<String, String> sourceHashes, @NotNull Map<String, byte[]> classes, @NotNull ScriptRegistry registry) {
+        this(packageName, fingerprint, System.getProperty("java.version", ""), sourceHashes, classes, registry);
+    }
+
+    private ScriptBundle(@NotNull String packageName, @NotNull String fingerprint, @NotNull String javaVersion, @NotNull Map<String, String> sourceHashes, @NotNull Map<String, byte[]> classes, @NotNull ScriptRegistry registry) {
+        this.packageName = packageName;
+        this.fingerprint = fingerprint;
+        this.javaVersion = javaVersion;
+        this.sourceHashes = sourceHashes;
+        this.classes = classes;
+        this.registry = registry;
+    }
+
+    public @NotNull String getPackageName() {
+        return packageName;
+    }
+
+    public @NotNull String getFingerprint() {
+        return fingerprint;
+    }
+
+    public @NotNull String getJavaVersion() {
+        return javaVersion;
+    }
+
+    /**
+     * @return map of script name to the hash of its source
+     */
+    public @NotNull Map<String, String> getSourceHashes() {
+        return sourceHashes;
+    }
+
+    /**
+     * @return map of binary class name to bytecode
+     */
+    public @NotNull Map<String, byte[]> getClasses() {
+        return classes;
+    }
+
+    /**
+     * @return the listeners and commands this bundle was checked against, or {@link ScriptRegistry#EMPTY} if it was
+     *         not checked
+     */
+    public @NotNull ScriptRegistry getRegistry() {
+        return registry;
+    }
+
+    /**
+     * Returns the scripts that did not produce a class of the same name, that is, the ones that failed to compile.
+     */
+    public @NotNull Set<String> getFailedScripts() {
+        Set<String> failed = new TreeSet<>();
+        for (String name : sourceHashes.keySet()) {
+            if (!classes.containsKey(packageName + "." + name)) failed.add(name);
+        }
+        return failed;
+    }
+
+    /**
+     * Returns whether this bundle was compiled from the given source hashes on the current classpath and JDK.
+     */
+    public boolean isUpToDate(@NotNull Map<String, String> sourceHashes) {
+        return javaVersion.equals(System.getProperty("java.version", "")) && fingerprint.equals(getFingerprint(sourceHashes));
+    }
+
+    /**
+     * Hashes every source.
+     * @param sources map of script name to source code
+     * @return map of script name to hash
+     */
+    public static @NotNull Map<String, String> hashSources(@NotNull Map<String, String> sources) {
+        Map<String, String> hashes = new HashMap<>();
+        sources.forEach((name, source) -> hashes.put(name, HashUtil.sha256(source)));
+        return hashes;
+    }
+
+    /**
+     * Computes the fingerprint from the source hashes and {@link JavaCompiler#getClasspathHash()}, so the classpath
+     * must be set up beforehand.
+     */
+    public static @NotNull String getFingerprint(@NotNull Map<String, String> sourceHashes) {
+        StringBuilder sb = new StringBuilder(JavaCompiler.getClasspathHash()).append('\n');
+        new TreeMap<>(sourceHashes).forEach((name, hash) -> sb.append(name).append('=').append(hash).append('\n'));
+        return HashUtil.sha256(sb.toString());
+    }
+
+    /**
+     * Writes this bundle to a temporary file next to the path, then moves it to the path, so that readers never see
+     * a partially written bundle.
+     */
+    public void write(@NotNull Path path) throws IOException {
+        Path parent = path.toAbsolutePath().getParent();
+        Files.createDirectories(parent);
+        Path tmp = Files.createTempFile(parent, path.getFileName().toString(), ".tmp");
+        try {
+            try (OutputStream out = Files.newOutputStream(tmp)) {
+                write(out);
+            }
+            try {
+                Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    public void write(@NotNull OutputStream out) throws IOException {
+        Manifest manifest = new Manifest();
+        Attributes attributes = manifest.getMainAttributes();
+        attributes.put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        attributes.put(FORMAT_VERSION_NAME, FORMAT_VERSION);
+        attributes.put(PACKAGE_NAME, packageName);
+        attributes.put(FINGERPRINT_NAME, fingerprint);
+        attributes.put(JAVA_VERSION_NAME, javaVersion);
+        sourceHashes.forEach((name, hash) -> {
+            Attributes sourceAttributes = new Attributes();
+            sourceAttributes.put(SOURCE_HASH_NAME, hash);
+            manifest.getEntries().put(SOURCE_PREFIX + name, sourceAttributes);
+        });
+        if (!registry.isEmpty()) {
+            attributes.put(LISTENERS_NAME, String.join(",", registry.getListeners()));
+            registry.getCommands().forEach((name, className) -> {
+                Attributes commandAttributes = new Attributes();
+                commandAttributes.put(CLASS_NAME, className);
+                manifest.getEntries().put(COMMAND_PREFIX + name, commandAttributes);
+            });
+        }
+        try (JarOutputStream jar = new JarOutputStream(out, manifest)) {
+            for (Map.Entry<String, byte[]> entry : new TreeMap<>(classes).entrySet()) {
+                jar.putNextEntry(new JarEntry(entry.getKey().replace('.', '/') + ".class"));
+                jar.write(entry.getValue());
+                jar.closeEntry();
+            }
+        }
+    }
+
+    public static @NotNull ScriptBundle read(@NotNull Path path) throws IOException {
+        try (InputStream in = Files.newInputStream(path)) {
+            return read(in);
+        }
+    }
+
+    public static @NotNull ScriptBundle read(@NotNull InputStream in) throws IOException {
+        try (JarInputStream jar = new JarInputStream(in)) {
+            Manifest manifest = jar.getManifest();
+            if (manifest == null) throw new IOException("Missing manifest");
+            Attributes attributes = manifest.getMainAttributes();
+            if (!FORMAT_VERSION.equals(attributes.getValue(FORMAT_VERSION_NAME))) {
+                throw new IOException("Unsupported bundle version: " + attributes.getValue(FORMAT_VERSION_NAME));
+            }
+            String packageName = Objects.requireNonNull(attributes.getValue(PACKAGE_NAME), "package");
+            String fingerprint = Objects.requireNonNull(attributes.getValue(FINGERPRINT_NAME), "fingerprint");
+            String javaVersion = Objects.requireNonNull(attributes.getValue(JAVA_VERSION_NAME), "java version");
+            Map<String, String> sourceHashes = new HashMap<>();
+            Map<String, String> commands = new HashMap<>();
+            manifest.getEntries().forEach((name, entryAttributes) -> {
+                if (name.startsWith(SOURCE_PREFIX)) {
+                    sourceHashes.put(name.substring(SOURCE_PREFIX.length()), entryAttributes.getValue(SOURCE_HASH_NAME));
+                } else if (name.startsWith(COMMAND_PREFIX)) {
+                    commands.put(name.substring(COMMAND_PREFIX.length()), entryAttributes.getValue(CLASS_NAME));
+                }
+            });
+            String listeners = attributes.getValue(LISTENERS_NAME);
+            ScriptRegistry registry = listeners == null && commands.isEmpty()
+                    ? ScriptRegistry.EMPTY
+                    : new ScriptRegistry(listeners == null || listeners.isEmpty() ? Collections.emptyList() : Arrays.asList(listeners.split(",")), commands);
+            Map<String, byte[]> classes = new HashMap<>();
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            byte[] bytes = new byte[8192];
+            JarEntry entry;
+            while ((entry = jar.getNextJarEntry()) != null) {
+                if (entry.isDirectory() || !entry.getName().endsWith(".class")) continue;
+                buffer.reset();
+                int n;
+                while ((n = jar.read(bytes)) > 0) buffer.write(bytes, 0, n);
+                String className = entry.getName().substring(0, entry.getName().length() - ".class".length()).replace('/', '.');
+                classes.put(className, buffer.toByteArray());
+            }
+            return new ScriptBundle(packageName, fingerprint, javaVersion, sourceHashes, classes, registry);
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package net.azisaba.spigotcommander.util.tools;
+
+import org.bukkit.configuration.ConfigurationSection;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.*;
+
+/**
+ * The listener and command classes named in the config, resolved to binary names. Stored in a {@link ScriptBundle}
+ * so that the classes a bundle was checked against can be compared with the config of the server loading it.
+ */
+public class ScriptRegistry {
+    public static final ScriptRegistry EMPTY = new ScriptRegistry(Collections.emptyList(), Collections.emptyMap());
+    private final List<String> listeners;
+    private final Map<String, String> commands;
+
+    /**
+     * @param listeners binary names of the listener classes
+     * @param commands map of command name to the binary name of its executor class
+     */
+    public ScriptRegistry(@NotNull List<String> listeners, @NotNull Map<String, String> commands) {
+        this.listeners = Collections.unmodifiableList(new ArrayList<>(listeners));
+        this.commands = Collections.unmodifiableMap(new TreeMap<>(commands));
+    }
+
+    /**
+     * Reads the listeners and commands sections of the config.
+     * @param config the root of the config
+     * @param packageName the package the scripts in the classes directory are compiled into
+     */
+    public static @NotNull ScriptRegistry fromConfig(@NotNull ConfigurationSection config, @NotNull String packageName) {
+        List<String> listeners = new ArrayList<>();
+        for (String className : config.getStringList("listeners")) {
+            listeners.add(resolveClassName(packageName, className));
+        }
+        Map<String, String> commands = new TreeMap<>();
+        ConfigurationSection commandsSection = config.getConfigurationSection("commands");
+        if (commandsSection != null) {
+            for (String key : commandsSection.getKeys(false)) {
+                String className = commandsSection.getString(key + ".class");
+                if (className != null) commands.put(key.toLowerCase(), resolveClassName(packageName, className));
+            }
+        }
+        return new ScriptRegistry(listeners, commands);
+    }
+
+    /**
+     * Returns the binary name of a class named in the config: a simple name refers to a script in the classes
+     * directory, and a fully qualified name to a class as is (e.g. in the compiled directory).
+     */
+    public static @NotNull String resolveClassName(@NotNull String packageName, @NotNull String className) {
+        return className.indexOf('.') == -1 ? packageName + "." + className : className;
+    }
+
+    public @NotNull List<String> getListeners() {
+        return listeners;
+    }
+
+    /**
+     * @return map of command name to the binary name of its executor class
+     */
+    public @NotNull Map<String, String> getCommands() {
+        return commands;
+    }
+
+    public boolean isEmpty() {
+        return listeners.isEmpty() && commands.isEmpty();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof ScriptRegistry)) return false;
+        ScriptRegistry that = (ScriptRegistry) o;
+        return new HashSet<>(listeners).equals(new HashSet<>(that.listeners)) && commands.equals(that.commands);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(new HashSet<>(listeners), commands);
+    }
+
+    @Override
+    public String toString() {
+        return "ScriptRegistry{listeners=" + listeners + ", commands=" + commands + '}';
+    }
+}
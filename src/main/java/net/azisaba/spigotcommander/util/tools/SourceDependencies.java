@@ -0,0 +1,135 @@
+package net.azisaba.spigotcommander.util.tools;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Approximates which scripts reference which other scripts. Scripts share a single package, so a reference is just
+ * an identifier that matches a type declared by another script. Identifiers in comments and string literals are
+ * counted too, which only ever adds edges.
+ */
+public class SourceDependencies {
+    private static final Pattern TYPE_DECLARATION = Pattern.compile("\\b(?:class|interface|enum)\\s+([\\p{javaJavaIdentifierStart}][\\p{javaJavaIdentifierPart}]*)");
+
+    /**
+     * @param sources map of script name to source code
+     * @param typeOwners map of simple type name to the script declaring it
+     * @return map of script name to the scripts it references (excluding itself)
+     */
+    public static @NotNull Map<String, Set<String>> scan(@NotNull Map<String, String> sources, @NotNull Map<String, String> typeOwners) {
+        Map<String, Set<String>> graph = new HashMap<>();
+        for (Map.Entry<String, String> entry : sources.entrySet()) {
+            Set<String> references = new HashSet<>();
+            String source = entry.getValue();
+            int length = source.length();
+            int i = 0;
+            while (i < length) {
+                if (!Character.isJavaIdentifierStart(source.charAt(i))) {
+                    i++;
+                    continue;
+                }
+                int start = i;
+                while (i < length && Character.isJavaIdentifierPart(source.charAt(i))) i++;
+                String owner = typeOwners.get(source.substring(start, i));
+                // only edges to scanned scripts, so that every edge is to a node of the graph
+                if (owner != null && !owner.equals(entry.getKey()) && sources.containsKey(owner)) {
+                    references.add(owner);
+                }
+            }
+            graph.put(entry.getKey(), references);
+        }
+        return graph;
+    }
+
+    /**
+     * Collects the given scripts and every script that references any of them, directly or transitively.
+     * @param graph the graph returned by {@link #scan(Map, Map)}
+     * @param changed the scripts to start from
+     * @return changed scripts and their dependents
+     */
+    public static @NotNull Set<String> dependents(@NotNull Map<String, Set<String>> graph, @NotNull Collection<String> changed) {
+        Map<String, Set<String>> reverse = new HashMap<>();
+        graph.forEach((script, references) -> {
+            for (String reference : references) {
+                reverse.computeIfAbsent(reference, k -> new HashSet<>()).add(script);
+            }
+        });
+        Set<String> result = new HashSet<>(changed);
+        Deque<String> queue = new ArrayDeque<>(changed);
+        while (!queue.isEmpty()) {
+            for (String dependent : reverse.getOrDefault(queue.poll(), Collections.emptySet())) {
+                if (result.add(dependent)) queue.add(dependent);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Approximates which script declares which type, from the script names and the class, interface and enum
+     * declarations in the sources (which may match text in comments, adding more edges to the graph).
+     * @param sources map of script name to source code; the simple name of a script must be its file name
+     * @return map of simple type name to the script declaring it, to be passed to {@link #scan(Map, Map)}
+     */
+    public static @NotNull Map<String, String> typeOwners(@NotNull Map<String, String> sources) {
+        Map<String, String> typeOwners = new HashMap<>();
+        sources.forEach((name, source) -> {
+            Matcher matcher = TYPE_DECLARATION.matcher(source);
+            while (matcher.find()) typeOwners.putIfAbsent(matcher.group(1), name);
+        });
+        // a file name always belongs to its own script
+        for (String name : sources.keySet()) {
+            typeOwners.put(name.substring(name.lastIndexOf('/') + 1), name);
+        }
+        return typeOwners;
+    }
+
+    /**
+     * Splits the graph into strongly connected components, that is, groups of scripts that reference each other
+     * directly or transitively and therefore have to be compiled together.
+     * @param graph the graph returned by {@link #scan(Map, Map)}
+     * @return the components, each one after all components it references
+     */
+    public static @NotNull List<Set<String>> components(@NotNull Map<String, Set<String>> graph) {
+        // Tarjan's algorithm, which finds a component only after all components reachable from it
+        Map<String, Integer> index = new HashMap<>();
+        Map<String, Integer> lowLink = new HashMap<>();
+        Deque<String> stack = new ArrayDeque<>();
+        Set<String> onStack = new HashSet<>();
+        List<Set<String>> components = new ArrayList<>();
+        for (String script : new TreeSet<>(graph.keySet())) {
+            if (!index.containsKey(script)) connect(graph, script, index, lowLink, stack, onStack, components);
+        }
+        return components;
+    }
+
+    private static void connect(@NotNull Map<String, Set<String>> graph, @NotNull String script, @NotNull Map<String, Integer> index,
+                                @NotNull Map<String, Integer> lowLink, @NotNull Deque<String> stack, @NotNull Set<String> onStack,
+                                @NotNull List<Set<String>> components) {
+        index.put(script, index.size());
+        lowLink.put(script, index.get(script));
+        stack.push(script);
+        onStack.add(script);
+        for (String reference : graph.getOrDefault(script, Collections.emptySet())) {
+            if (!graph.containsKey(reference)) continue;
+            if (!index.containsKey(reference)) {
+                connect(graph, reference, index, lowLink, stack, onStack, components);
+                lowLink.put(script, Math.min(lowLink.get(script), lowLink.get(reference)));
+            } else if (onStack.contains(reference)) {
+                lowLink.put(script, Math.min(lowLink.get(script), index.get(reference)));
+            }
+        }
+        if (lowLink.get(script).equals(index.get(script))) {
+            Set<String> component = new HashSet<>();
+            String member;
+            do {
+                member = stack.pop();
+                onStack.remove(member);
+                component.add(member);
+            } while (!member.equals(script));
+            components.add(component);
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package net.azisaba.spigotcommander.state;
+
+import com.google.gson.reflect.TypeToken;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class StateStoreTest {
+    @TempDir
+    Path dir;
+
+    static final class Counter {
+        String name;
+        int count;
+        List<String> players;
+    }
+
+    @Test
+    void jsonCodecRoundTrip() throws IOException {
+        StateCodec<Map<String, Integer>> codec = StateCodec.json(new TypeToken<Map<String, Integer>>() {}.getType());
+        Map<String, Integer> value = new HashMap<>();
+        value.put("a", 1);
+        value.put("b", 2);
+        assertEquals(value, codec.decode(codec.encode(value)));
+    }
+
+    @Test
+    void jsonCodecRoundTripOfClass() throws IOException {
+        StateCodec<Counter> codec = StateCodec.json(Counter.class);
+        Counter counter = new Counter();
+        counter.name = "kills";
+        counter.count = 3;
+        counter.players = Arrays.asList("a", "b");
+        Counter decoded = codec.decode(codec.encode(counter));
+        assertEquals("kills", decoded.name);
+        assertEquals(3, decoded.count);
+        assertEquals(counter.players, decoded.players);
+    }
+
+    @Test
+    void jsonCodecRejectsNull() {
+        StateCodec<Counter> codec = StateCodec.json(Counter.class);
+        assertThrows(IOException.class, () -> codec.decode("null".getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Test
+    void storeKeepsOnlyPlainValues() throws IOException {
+        StateStore store = new StateStore();
+        store.put("string", "value");
+        store.put("long", 42L);
+        assertThrows(IllegalArgumentException.class, () -> store.put("list", new ArrayList<>()));
+        assertThrows(IllegalArgumentException.class, () -> store.computeIfAbsent("object", Object::new));
+        StateCodec<Counter> codec = StateCodec.json(Counter.class);
+        Counter counter = new Counter();
+        counter.count = 7;
+        store.put("counter", counter, codec);
+        assertTrue(store.get("counter") instanceof byte[]);
+        assertEquals(7, Objects.requireNonNull(store.get("counter", codec)).count);
+        assertNull(store.get("string", codec));
+        assertEquals(Long.valueOf(42), store.get("long", Long.class));
+        assertNull(store.get("long", String.class));
+    }
+
+    @Test
+    void computeIfAbsentKeepsExistingValue() {
+        StateStore store = new StateStore();
+        assertEquals(1, store.computeIfAbsent("key", () -> 1));
+        assertEquals(1, store.computeIfAbsent("key", () -> 2));
+    }
+
+    @Test
+    void removeAllByPrefix() {
+        StateStore store = new StateStore();
+        store.put("a.1", 1);
+        store.put("a.2", 2);
+        store.put("b.1", 3);
+        store.removeAll("a.");
+        assertEquals(Collections.singleton("b.1"), store.keys());
+    }
+
+    @Test
+    void saveAndLoad() throws IOException {
+        StateStore store = new StateStore();
+        store.put("string", "日本語");
+        store.put("bytes", new byte[]{1, 2, 3});
+        store.put("boolean", true);
+        store.put("char", 'x');
+        store.put("byte", (byte) 1);
+        store.put("short", (short) 2);
+        store.put("int", 3);
+        store.put("long", 4L);
+        store.put("float", 5.5f);
+        store.put("double", 6.5);
+        Path file = dir.resolve("state.bin");
+        store.save(file);
+        StateStore loaded = new StateStore();
+        loaded.load(file);
+        assertEquals(store.keys(), loaded.keys());
+        for (String key : store.keys()) {
+            if (key.equals("bytes")) continue;
+            assertEquals(store.get(key), loaded.get(key), key);
+        }
+        assertArrayEquals(new byte[]{1, 2, 3}, loaded.get("bytes", byte[].class));
+    }
+
+    @Test
+    void loadIgnoresMissingFile() throws IOException {
+        StateStore store = new StateStore();
+        store.load(dir.resolve("missing.bin"));
+        assertEquals(0, store.size());
+    }
+
+    @Test
+    void maxBytesEvictsEntries() {
+        StateStore store = new StateStore();
+        for (int i = 0; i < 1000; i++) store.put("key" + i, "0123456789");
+        assertEquals(1000, store.size());
+        store.setMaxBytes(2000);
+        assertTrue(store.size() < 1000);
+        store.setMaxBytes(0);
+        for (int i = 0; i < 1000; i++) store.put("key" + i, "0123456789");
+        assertEquals(1000, store.size());
+    }
+}
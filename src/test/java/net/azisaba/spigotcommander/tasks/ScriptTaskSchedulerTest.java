@@ -0,0 +1,72 @@
+package net.azisaba.spigotcommander.tasks;
+
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ScriptTaskSchedulerTest {
+    private static @NotNull ScriptTask task(@NotNull String name, int intervalTicks) {
+        return new ScriptTask(name, () -> {}, intervalTicks, false, null);
+    }
+
+    /**
+     * Returns the largest number of tasks running on the same tick, over the ticks the offsets are balanced over.
+     */
+    private static int maxLoad(@NotNull Map<ScriptTask, Integer> offsets) {
+        int[] load = new int[1200];
+        offsets.forEach((task, offset) -> {
+            for (int t = offset; t < load.length; t += task.getIntervalTicks()) load[t]++;
+        });
+        int max = 0;
+        for (int n : load) max = Math.max(max, n);
+        return max;
+    }
+
+    @Test
+    void offsetsAreWithinInterval() {
+        List<ScriptTask> tasks = new ArrayList<>();
+        for (int i = 1; i <= 50; i++) tasks.add(task("task" + i, i));
+        Map<ScriptTask, Integer> offsets = ScriptTaskScheduler.assignOffsets(tasks);
+        assertEquals(tasks.size(), offsets.size());
+        offsets.forEach((task, offset) -> assertTrue(offset >= 0 && offset < task.getIntervalTicks(), task + " got offset " + offset));
+    }
+
+    @Test
+    void tasksWithSameIntervalRunOnDifferentTicks() {
+        List<ScriptTask> tasks = new ArrayList<>();
+        for (int i = 0; i < 20; i++) tasks.add(task("task" + i, 20));
+        assertEquals(1, maxLoad(ScriptTaskScheduler.assignOffsets(tasks)));
+    }
+
+    @Test
+    void frequentTasksArePlacedFirst() {
+        // the task every 2 ticks takes the even ticks, leaving the odd ones to the tasks every 4 ticks
+        List<ScriptTask> tasks = new ArrayList<>();
+        tasks.add(task("slow1", 4));
+        tasks.add(task("slow2", 4));
+        tasks.add(task("fast", 2));
+        assertEquals(1, maxLoad(ScriptTaskScheduler.assignOffsets(tasks)));
+    }
+
+    @Test
+    void moreTasksThanTicksAreSpreadEvenly() {
+        List<ScriptTask> tasks = new ArrayList<>();
+        for (int i = 0; i < 7; i++) tasks.add(task("task" + i, 3));
+        assertEquals(3, maxLoad(ScriptTaskScheduler.assignOffsets(tasks)));
+    }
+
+    @Test
+    void intervalLongerThanSpreadWindow() {
+        List<ScriptTask> tasks = new ArrayList<>();
+        tasks.add(task("hourly", 72000));
+        tasks.add(task("hourly2", 72000));
+        Map<ScriptTask, Integer> offsets = ScriptTaskScheduler.assignOffsets(tasks);
+        assertEquals(1, maxLoad(offsets));
+    }
+}
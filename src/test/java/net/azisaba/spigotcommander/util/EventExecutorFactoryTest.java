@@ -0,0 +1,101 @@
+package net.azisaba.spigotcommander.util;
+
+import org.bukkit.event.Event;
+import org.bukkit.event.EventException;
+import org.bukkit.event.HandlerList;
+import org.bukkit.event.Listener;
+import org.bukkit.plugin.EventExecutor;
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class EventExecutorFactoryTest {
+    private static final List<String> CALLS = new ArrayList<>();
+
+    public static class TestEvent extends Event {
+        private static final HandlerList HANDLERS = new HandlerList();
+
+        @Override
+        public @NotNull HandlerList getHandlers() {
+            return HANDLERS;
+        }
+    }
+
+    public static class SubEvent extends TestEvent {
+    }
+
+    public static class OtherEvent extends Event {
+        private static final HandlerList HANDLERS = new HandlerList();
+
+        @Override
+        public @NotNull HandlerList getHandlers() {
+            return HANDLERS;
+        }
+    }
+
+    public static class TestListener implements Listener {
+        public void onEvent(TestEvent event) {
+            CALLS.add("onEvent " + event.getClass().getSimpleName());
+        }
+
+        public long withResult(TestEvent event) {
+            CALLS.add("withResult");
+            return 1;
+        }
+
+        public static void onStatic(TestEvent event) {
+            CALLS.add("onStatic");
+        }
+
+        public void fail(TestEvent event) {
+            throw new IllegalStateException("fail");
+        }
+    }
+
+    static class PrivateListener implements Listener {
+        private void onEvent(TestEvent event) {
+            CALLS.add("private");
+        }
+    }
+
+    private static @NotNull EventExecutor create(@NotNull Class<?> listenerClass, @NotNull String name) throws NoSuchMethodException {
+        return EventExecutorFactory.create(listenerClass.getDeclaredMethod(name, TestEvent.class), TestEvent.class);
+    }
+
+    @Test
+    void dispatchesMatchingEvents() throws Exception {
+        CALLS.clear();
+        EventExecutor executor = create(TestListener.class, "onEvent");
+        executor.execute(new TestListener(), new TestEvent());
+        executor.execute(new TestListener(), new SubEvent());
+        executor.execute(new TestListener(), new OtherEvent());
+        assertEquals(Arrays.asList("onEvent TestEvent", "onEvent SubEvent"), CALLS);
+    }
+
+    @Test
+    void dispatchesToAnyKindOfHandler() throws Exception {
+        CALLS.clear();
+        create(TestListener.class, "withResult").execute(new TestListener(), new TestEvent());
+        create(TestListener.class, "onStatic").execute(new TestListener(), new TestEvent());
+        create(PrivateListener.class, "onEvent").execute(new PrivateListener(), new TestEvent());
+        assertEquals(Arrays.asList("withResult", "onStatic", "private"), CALLS);
+    }
+
+    @Test
+    void wrapsExceptionsOfHandler() throws Exception {
+        EventException e = assertThrows(EventException.class, () -> create(TestListener.class, "fail").execute(new TestListener(), new TestEvent()));
+        assertTrue(e.getCause() instanceof IllegalStateException);
+    }
+
+    @Test
+    void wrapsCastFailureOfListener() throws Exception {
+        EventExecutor executor = create(TestListener.class, "onEvent");
+        EventException e = assertThrows(EventException.class, () -> executor.execute(new PrivateListener(), new TestEvent()));
+        assertTrue(e.getCause() instanceof ClassCastException);
+    }
+}
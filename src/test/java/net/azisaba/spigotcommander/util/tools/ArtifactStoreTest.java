@@ -0,0 +1,124 @@
+package net.azisaba.spigotcommander.util.tools;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ArtifactStoreTest {
+    private static final String KEY = "ab34567890";
+    private final Set<String> previousClasspath = new HashSet<>();
+    private final List<String> locked = new ArrayList<>();
+    @TempDir
+    Path dir;
+    private ArtifactStore store;
+
+    @BeforeEach
+    void setUp() {
+        previousClasspath.addAll(JavaCompiler.classpath);
+        JavaCompiler.classpath.clear();
+        store = new ArtifactStore(dir.resolve("store"), 500);
+    }
+
+    @AfterEach
+    void tearDown() {
+        // stops refreshing the lock files
+        locked.forEach(store::unlock);
+        JavaCompiler.classpath.clear();
+        JavaCompiler.classpath.addAll(previousClasspath);
+    }
+
+    private boolean tryLock(String key) throws IOException {
+        boolean result = store.tryLock(key);
+        if (result) locked.add(key);
+        return result;
+    }
+
+    private static ScriptBundle bundle() {
+        Map<String, String> hashes = Collections.singletonMap("Ping", "0123");
+        return new ScriptBundle("scripts", ScriptBundle.getFingerprint(hashes), hashes, Collections.singletonMap("scripts.Ping", new byte[]{1}));
+    }
+
+    @Test
+    void lockIsExclusiveUntilUnlocked() throws IOException {
+        assertTrue(tryLock(KEY));
+        assertFalse(tryLock(KEY));
+        store.unlock(KEY);
+        assertFalse(Files.exists(store.getLockPath(KEY)));
+        assertTrue(tryLock(KEY));
+    }
+
+    @Test
+    void recentlyTouchedLockIsNotTakenOver() throws IOException {
+        Path lock = store.getLockPath(KEY);
+        Files.createDirectories(lock.getParent());
+        Files.createFile(lock);
+        // older than the wait time of the store, but another server may still be compiling
+        Files.setLastModifiedTime(lock, FileTime.fromMillis(System.currentTimeMillis() - TimeUnit.SECONDS.toMillis(5)));
+        assertFalse(tryLock(KEY));
+    }
+
+    @Test
+    void abandonedLockIsTakenOver() throws IOException {
+        Path lock = store.getLockPath(KEY);
+        Files.createDirectories(lock.getParent());
+        Files.createFile(lock);
+        Files.setLastModifiedTime(lock, FileTime.fromMillis(System.currentTimeMillis() - TimeUnit.MINUTES.toMillis(5)));
+        assertTrue(tryLock(KEY));
+        assertTrue(Files.exists(lock));
+    }
+
+    @Test
+    void publishedBundleIsFetched() throws IOException {
+        assertNull(store.fetch(KEY));
+        store.publish(KEY, bundle());
+        ScriptBundle fetched = store.fetch(KEY);
+        assertNotNull(fetched);
+        assertEquals(bundle().getFingerprint(), fetched.getFingerprint());
+        assertArrayEquals(new byte[]{1}, fetched.getClasses().get("scripts.Ping"));
+    }
+
+    @Test
+    void awaitReturnsNullWhenLockIsReleasedWithoutBundle() throws IOException {
+        assertTrue(tryLock(KEY));
+        store.unlock(KEY);
+        assertNull(store.await(KEY));
+    }
+
+    @Test
+    void awaitGivesUpAfterWaitTime() throws IOException {
+        assertTrue(tryLock(KEY));
+        long start = System.nanoTime();
+        assertNull(store.await(KEY));
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(500));
+    }
+
+    @Test
+    void keyDependsOnClasspathContentsOnly() throws IOException {
+        Map<String, String> hashes = Collections.singletonMap("Ping", "0123");
+        Path first = dir.resolve("server1").resolve("library.jar");
+        Path second = dir.resolve("server2").resolve("library.jar");
+        Files.createDirectories(first.getParent());
+        Files.createDirectories(second.getParent());
+        Files.write(first, "library".getBytes(StandardCharsets.UTF_8));
+        Files.write(second, "library".getBytes(StandardCharsets.UTF_8));
+        JavaCompiler.classpath.add(first.toString());
+        String key = ArtifactStore.getKey(hashes);
+        JavaCompiler.classpath.clear();
+        JavaCompiler.classpath.add(second.toString());
+        assertEquals(key, ArtifactStore.getKey(hashes));
+        Files.write(second, "library v2".getBytes(StandardCharsets.UTF_8));
+        assertNotEquals(key, ArtifactStore.getKey(hashes));
+        assertNotEquals(key, ArtifactStore.getKey(Collections.singletonMap("Ping", "4567")));
+    }
+}
@@ -0,0 +1,114 @@
+package net.azisaba.spigotcommander.util.tools;
+
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ScriptBundleTest {
+    private static final String PACKAGE = "net.azisaba.spigotcommander.scripts.test";
+    private final Set<String> previousClasspath = new HashSet<>();
+    @TempDir
+    Path dir;
+
+    @BeforeEach
+    void saveClasspath() {
+        previousClasspath.addAll(JavaCompiler.classpath);
+        JavaCompiler.classpath.clear();
+    }
+
+    @AfterEach
+    void restoreClasspath() {
+        JavaCompiler.classpath.clear();
+        JavaCompiler.classpath.addAll(previousClasspath);
+    }
+
+    private static @NotNull Map<String, String> sources() {
+        Map<String, String> sources = new HashMap<>();
+        sources.put("Ping", "public class Ping {}");
+        sources.put("Pong", "public class Pong {}");
+        return sources;
+    }
+
+    private static @NotNull ScriptBundle bundle(@NotNull Map<String, String> sourceHashes, @NotNull ScriptRegistry registry) {
+        Map<String, byte[]> classes = new HashMap<>();
+        classes.put(PACKAGE + ".Ping", new byte[]{1, 2, 3});
+        classes.put(PACKAGE + ".Ping$1", new byte[]{4});
+        return new ScriptBundle(PACKAGE, ScriptBundle.getFingerprint(sourceHashes), sourceHashes, classes, registry);
+    }
+
+    @Test
+    void upToDateWithSameSources() {
+        Map<String, String> hashes = ScriptBundle.hashSources(sources());
+        assertTrue(bundle(hashes, ScriptRegistry.EMPTY).isUpToDate(ScriptBundle.hashSources(sources())));
+    }
+
+    @Test
+    void outdatedWhenSourceChanges() {
+        ScriptBundle bundle = bundle(ScriptBundle.hashSources(sources()), ScriptRegistry.EMPTY);
+        Map<String, String> changed = sources();
+        changed.put("Pong", "public class Pong { int x; }");
+        assertFalse(bundle.isUpToDate(ScriptBundle.hashSources(changed)));
+        Map<String, String> removed = sources();
+        removed.remove("Pong");
+        assertFalse(bundle.isUpToDate(ScriptBundle.hashSources(removed)));
+    }
+
+    @Test
+    void outdatedWhenClasspathChanges() throws IOException {
+        Path jar = dir.resolve("library.jar");
+        Files.write(jar, "v1".getBytes(StandardCharsets.UTF_8));
+        JavaCompiler.classpath.add(jar.toString());
+        Map<String, String> hashes = ScriptBundle.hashSources(sources());
+        ScriptBundle bundle = bundle(hashes, ScriptRegistry.EMPTY);
+        assertTrue(bundle.isUpToDate(hashes));
+        // a different size is enough, the contents are not hashed
+        Files.write(jar, "v2 with more bytes".getBytes(StandardCharsets.UTF_8));
+        assertFalse(bundle.isUpToDate(hashes));
+    }
+
+    @Test
+    void writeAndRead() throws IOException {
+        Map<String, String> hashes = ScriptBundle.hashSources(sources());
+        ScriptRegistry registry = new ScriptRegistry(Collections.singletonList(PACKAGE + ".Ping"), Collections.singletonMap("ping", PACKAGE + ".Ping"));
+        ScriptBundle bundle = bundle(hashes, registry);
+        Path path = dir.resolve("cache").resolve("scripts.jar");
+        bundle.write(path);
+        ScriptBundle read = ScriptBundle.read(path);
+        assertEquals(PACKAGE, read.getPackageName());
+        assertEquals(bundle.getFingerprint(), read.getFingerprint());
+        assertEquals(bundle.getJavaVersion(), read.getJavaVersion());
+        assertEquals(hashes, read.getSourceHashes());
+        assertEquals(registry, read.getRegistry());
+        assertEquals(bundle.getClasses().keySet(), read.getClasses().keySet());
+        bundle.getClasses().forEach((name, bytes) -> assertArrayEquals(bytes, read.getClasses().get(name), name));
+        assertTrue(read.isUpToDate(hashes));
+        // no temporary file is left next to the bundle
+        try (Stream<Path> files = Files.list(path.getParent())) {
+            assertEquals(1, files.count());
+        }
+    }
+
+    @Test
+    void failedScriptsHaveNoClass() {
+        ScriptBundle bundle = bundle(ScriptBundle.hashSources(sources()), ScriptRegistry.EMPTY);
+        assertEquals(Collections.singleton("Pong"), bundle.getFailedScripts());
+    }
+
+    @Test
+    void readRejectsOtherFiles() throws IOException {
+        Path path = dir.resolve("not-a-bundle.jar");
+        Files.write(path, "not a jar".getBytes(StandardCharsets.UTF_8));
+        assertThrows(IOException.class, () -> ScriptBundle.read(path));
+    }
+}
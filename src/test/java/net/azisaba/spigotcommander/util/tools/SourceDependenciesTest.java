@@ -0,0 +1,99 @@
+package net.azisaba.spigotcommander.util.tools;
+
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SourceDependenciesTest {
+    private static @NotNull Map<String, Set<String>> graph(@NotNull Map<String, String> sources) {
+        return SourceDependencies.scan(sources, SourceDependencies.typeOwners(sources));
+    }
+
+    private static @NotNull Set<String> set(@NotNull String... elements) {
+        return new HashSet<>(Arrays.asList(elements));
+    }
+
+    @Test
+    void scanFindsReferencesToOtherScripts() {
+        Map<String, String> sources = new HashMap<>();
+        sources.put("A", "public class A { B b; String s = \"A\"; }");
+        sources.put("B", "public class B { Helper h; }\nclass Helper { C c; }");
+        sources.put("C", "public class C { java.util.List<String> list; }");
+        Map<String, Set<String>> graph = graph(sources);
+        assertEquals(set("B"), graph.get("A"));
+        // Helper is declared in B, so its reference to C belongs to B
+        assertEquals(set("C"), graph.get("B"));
+        assertEquals(set(), graph.get("C"));
+    }
+
+    @Test
+    void typeOwnersIncludeNestedTypes() {
+        Map<String, String> sources = new HashMap<>();
+        sources.put("A", "public class A { public interface Callback {} enum Mode { ON } }");
+        sources.put("B", "public class B implements A.Callback { Mode mode; }");
+        Map<String, String> owners = SourceDependencies.typeOwners(sources);
+        assertEquals("A", owners.get("Callback"));
+        assertEquals("A", owners.get("Mode"));
+        assertEquals(set("A"), graph(sources).get("B"));
+    }
+
+    @Test
+    void scanIgnoresOwnersOutsideSources() {
+        Map<String, String> sources = Collections.singletonMap("A", "public class A { Removed r; }");
+        Map<String, String> owners = new HashMap<>(SourceDependencies.typeOwners(sources));
+        owners.put("Removed", "Removed");
+        assertEquals(set(), SourceDependencies.scan(sources, owners).get("A"));
+    }
+
+    @Test
+    void componentsGroupCyclesAndComeAfterTheirReferences() {
+        Map<String, Set<String>> graph = new HashMap<>();
+        graph.put("A", set("B"));
+        graph.put("B", set("A", "C"));
+        graph.put("C", set());
+        graph.put("D", set("A"));
+        graph.put("E", set("D", "C"));
+        List<Set<String>> components = SourceDependencies.components(graph);
+        assertEquals(4, components.size());
+        assertTrue(components.contains(set("A", "B")));
+        Map<String, Integer> position = new HashMap<>();
+        for (int i = 0; i < components.size(); i++) {
+            for (String script : components.get(i)) position.put(script, i);
+        }
+        assertEquals(graph.keySet(), position.keySet());
+        graph.forEach((script, references) -> {
+            for (String reference : references) {
+                assertTrue(position.get(reference) <= position.get(script), script + " is compiled before " + reference);
+            }
+        });
+    }
+
+    @Test
+    void componentsOfLongChain() {
+        // deep enough to show that the recursion is not a problem for realistic numbers of scripts
+        Map<String, Set<String>> graph = new HashMap<>();
+        for (int i = 0; i < 500; i++) {
+            graph.put("S" + i, i == 0 ? set() : set("S" + (i - 1)));
+        }
+        List<Set<String>> components = SourceDependencies.components(graph);
+        assertEquals(500, components.size());
+        for (int i = 0; i < 500; i++) {
+            assertEquals(set("S" + i), components.get(i));
+        }
+    }
+
+    @Test
+    void dependentsAreTransitive() {
+        Map<String, Set<String>> graph = new HashMap<>();
+        graph.put("A", set());
+        graph.put("B", set("A"));
+        graph.put("C", set("B"));
+        graph.put("D", set());
+        assertEquals(set("A", "B", "C"), SourceDependencies.dependents(graph, Collections.singleton("A")));
+        assertEquals(set("C"), SourceDependencies.dependents(graph, Collections.singleton("C")));
+    }
+}